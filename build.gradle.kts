@@ -20,6 +20,7 @@ repositories {
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.14.3"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 
     implementation(gradleApi())
     implementation("org.jetbrains:annotations:26.1.0")
@@ -59,6 +60,47 @@ tasks.check {
     dependsOn(functionalTestTask)
 }
 
+val bundleGenerator by sourceSets.creating
+
+configurations[bundleGenerator.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+
+// Writes a synthetic bundle, generator options are passed with -PbundleGeneratorArgs, e.g.
+// -PbundleGeneratorArgs="--output=build/synthetic.aab --modules=20 --strings=5000 --locales=30"
+tasks.register<JavaExec>("generateSyntheticBundle") {
+    description = "Generates a synthetic Android App Bundle for load tests."
+    group = "verification"
+    classpath = bundleGenerator.runtimeClasspath
+    mainClass.set("com.androidacy.reschiper.generator.SyntheticBundleGenerator")
+    args(providers.gradleProperty("bundleGeneratorArgs").getOrElse("").split(" ").filter { it.isNotBlank() })
+}
+
+// the unit tests package synthetic bundles
+sourceSets.test {
+    compileClasspath += bundleGenerator.output
+    runtimeClasspath += bundleGenerator.output
+}
+
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + bundleGenerator.output
+    runtimeClasspath += sourceSets.main.get().output + bundleGenerator.output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// Runs the benchmarks, JMH options are passed with -PjmhArgs, e.g. -PjmhArgs="GlobMatcher -p ruleCount=1000"
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args(providers.gradleProperty("jmhArgs").getOrElse("").split(" ").filter { it.isNotBlank() })
+}
+
 gradlePlugin {
     testSourceSets(functionalTest)
     plugins {
@@ -0,0 +1,416 @@
+package com.androidacy.reschiper.generator;
+
+import com.android.aapt.Resources;
+import com.android.bundle.Config;
+import com.android.tools.build.bundletool.io.AppBundleSerializer;
+import com.android.tools.build.bundletool.model.*;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Generates synthetic Android App Bundles for performance testing, entirely offline.
+ * <p>
+ * The bundle is built with bundletool's model classes and written by its {@link AppBundleSerializer}, so it can be
+ * read back like any bundle produced by the Android Gradle plugin. The first module is the base module, the others
+ * are feature modules with their own package id. Every module has the configured number of resources of each
+ * {@link ResourceType}, named after their module and type, so the resources of different modules do not collide.
+ * File resources of the same type share their content with an earlier file of their module at the configured
+ * duplicate ratio, and strings are translated to the configured number of locales. The same settings and seed always
+ * generate the same bundle.
+ * <p>
+ * It can also be run from the command line with {@code --name=value} options, see {@link #main(String[])}.
+ */
+public class SyntheticBundleGenerator {
+    public static final String PACKAGE_NAME = "com.androidacy.reschiper.synthetic";
+    private static final String BUNDLETOOL_VERSION = "1.18.3";
+    private static final int BASE_PACKAGE_ID = 0x7f;
+
+    /**
+     * The resource types of a synthetic module.
+     */
+    public enum ResourceType {
+        DRAWABLE("drawable", ".png", Resources.FileReference.Type.PNG),
+        LAYOUT("layout", ".xml", Resources.FileReference.Type.PROTO_XML),
+        RAW("raw", ".bin", Resources.FileReference.Type.UNKNOWN),
+        STRING("string", null, null),
+        COLOR("color", null, null);
+
+        private final String typeName;
+        private final String fileSuffix;
+        private final Resources.FileReference.Type fileType;
+
+        ResourceType(String typeName, String fileSuffix, Resources.FileReference.Type fileType) {
+            this.typeName = typeName;
+            this.fileSuffix = fileSuffix;
+            this.fileType = fileType;
+        }
+
+        /**
+         * Gets the name of the type in the resource table.
+         *
+         * @return The type name.
+         */
+        public String getTypeName() {
+            return typeName;
+        }
+
+        /**
+         * Checks whether the resources of this type reference a file.
+         *
+         * @return true if every resource has a file under res/.
+         */
+        public boolean hasFile() {
+            return fileType != null;
+        }
+    }
+
+    private final Map<ResourceType, Integer> resourceCounts = new EnumMap<>(ResourceType.class);
+    private int moduleCount = 1;
+    private int fileSize = 4096;
+    private double duplicateRatio = 0;
+    private int localeCount = 0;
+    private long seed = 0;
+
+    /**
+     * Constructs a generator of single-module bundles with 1000 drawables and 1000 strings.
+     */
+    public SyntheticBundleGenerator() {
+        resourceCounts.put(ResourceType.DRAWABLE, 1000);
+        resourceCounts.put(ResourceType.STRING, 1000);
+    }
+
+    /**
+     * Generates a bundle from the command line. Every option has the form {@code --name=value}:
+     * {@code --output} (required), {@code --modules}, {@code --drawables}, {@code --layouts}, {@code --raws},
+     * {@code --strings}, {@code --colors}, {@code --file-size}, {@code --duplicate-ratio}, {@code --locales} and
+     * {@code --seed}.
+     *
+     * @param args The options.
+     * @throws IOException If the bundle can not be written.
+     */
+    public static void main(String @NotNull [] args) throws IOException {
+        SyntheticBundleGenerator generator = new SyntheticBundleGenerator();
+        Path output = null;
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator == -1)
+                throw new IllegalArgumentException("Expected an option like --name=value, got " + arg);
+            String value = arg.substring(separator + 1);
+            switch (arg.substring(2, separator)) {
+                case "output" -> output = Path.of(value);
+                case "modules" -> generator.withModuleCount(Integer.parseInt(value));
+                case "drawables" -> generator.withResourceCount(ResourceType.DRAWABLE, Integer.parseInt(value));
+                case "layouts" -> generator.withResourceCount(ResourceType.LAYOUT, Integer.parseInt(value));
+                case "raws" -> generator.withResourceCount(ResourceType.RAW, Integer.parseInt(value));
+                case "strings" -> generator.withResourceCount(ResourceType.STRING, Integer.parseInt(value));
+                case "colors" -> generator.withResourceCount(ResourceType.COLOR, Integer.parseInt(value));
+                case "file-size" -> generator.withFileSize(Integer.parseInt(value));
+                case "duplicate-ratio" -> generator.withDuplicateRatio(Double.parseDouble(value));
+                case "locales" -> generator.withLocaleCount(Integer.parseInt(value));
+                case "seed" -> generator.withSeed(Long.parseLong(value));
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (output == null)
+            throw new IllegalArgumentException("Missing --output=<path>.aab");
+        generator.generate(output);
+        System.out.printf("- Generated %s (%d bytes)%n", output, Files.size(output));
+    }
+
+    /**
+     * Gets the name of a module of a synthetic bundle.
+     *
+     * @param module The index of the module, 0 being the base module.
+     * @return The module name.
+     */
+    public static @NotNull String getModuleName(int module) {
+        return module == 0 ? BundleModuleName.BASE_MODULE_NAME.getName() : "feature" + module;
+    }
+
+    /**
+     * Sets the number of modules, including the base module.
+     *
+     * @param moduleCount The number of modules.
+     * @return This generator.
+     */
+    public SyntheticBundleGenerator withModuleCount(int moduleCount) {
+        if (moduleCount < 1 || moduleCount > BASE_PACKAGE_ID - 1)
+            throw new IllegalArgumentException("Module count must be between 1 and " + (BASE_PACKAGE_ID - 1) + ": " + moduleCount);
+        this.moduleCount = moduleCount;
+        return this;
+    }
+
+    /**
+     * Sets the number of resources of a type in every module.
+     *
+     * @param type  The resource type.
+     * @param count The number of resources, 0 to leave the type out.
+     * @return This generator.
+     */
+    public SyntheticBundleGenerator withResourceCount(@NotNull ResourceType type, int count) {
+        if (count < 0 || count > 0x10000)
+            throw new IllegalArgumentException("Resource count must be between 0 and 65536: " + count);
+        resourceCounts.put(type, count);
+        return this;
+    }
+
+    /**
+     * Sets the size of every drawable and raw file. Layout files are proto XML documents of about this size.
+     *
+     * @param fileSize The file size in bytes.
+     * @return This generator.
+     */
+    public SyntheticBundleGenerator withFileSize(int fileSize) {
+        if (fileSize < 0)
+            throw new IllegalArgumentException("File size must not be negative: " + fileSize);
+        this.fileSize = fileSize;
+        return this;
+    }
+
+    /**
+     * Sets the share of file resources with the same content as an earlier file of the same type and module.
+     *
+     * @param duplicateRatio The duplicate ratio, between 0 and 1.
+     * @return This generator.
+     */
+    public SyntheticBundleGenerator withDuplicateRatio(double duplicateRatio) {
+        if (duplicateRatio < 0 || duplicateRatio > 1)
+            throw new IllegalArgumentException("Duplicate ratio must be between 0 and 1: " + duplicateRatio);
+        this.duplicateRatio = duplicateRatio;
+        return this;
+    }
+
+    /**
+     * Sets the number of locales every string is translated to, besides its default value.
+     *
+     * @param localeCount The number of locales.
+     * @return This generator.
+     */
+    public SyntheticBundleGenerator withLocaleCount(int localeCount) {
+        int maxLocaleCount = Locale.getISOLanguages().length;
+        if (localeCount < 0 || localeCount > maxLocaleCount)
+            throw new IllegalArgumentException("Locale count must be between 0 and " + maxLocaleCount + ": " + localeCount);
+        this.localeCount = localeCount;
+        return this;
+    }
+
+    /**
+     * Sets the seed of the generated content.
+     *
+     * @param seed The seed.
+     * @return This generator.
+     */
+    public SyntheticBundleGenerator withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generates the bundle and writes it.
+     *
+     * @param output The path of the bundle to write, which must not exist.
+     * @throws IOException If the bundle can not be written.
+     */
+    public void generate(@NotNull Path output) throws IOException {
+        new AppBundleSerializer().writeToDisk(build(), output);
+    }
+
+    /**
+     * Generates the bundle in memory. The file contents are generated whenever they are read.
+     *
+     * @return The bundle.
+     */
+    public AppBundle build() {
+        Config.BundleConfig bundleConfig = Config.BundleConfig.newBuilder()
+                .setBundletool(Config.Bundletool.newBuilder().setVersion(BUNDLETOOL_VERSION))
+                .build();
+        ImmutableList.Builder<BundleModule> modules = ImmutableList.builder();
+        for (int module = 0; module < moduleCount; module++) {
+            modules.add(BundleModule.builder()
+                    .setName(BundleModuleName.create(getModuleName(module)))
+                    .setBundleConfig(bundleConfig)
+                    .setAndroidManifestProto(buildManifest(module))
+                    .setResourceTable(buildResourceTable(module))
+                    .setRawEntries(buildEntries(module))
+                    .build());
+        }
+        return AppBundle.buildFromModules(modules.build(), bundleConfig, BundleMetadata.builder().build());
+    }
+
+    /**
+     * Generates the resource table of a module.
+     *
+     * @param module The index of the module, 0 being the base module.
+     * @return The resource table.
+     */
+    public Resources.ResourceTable buildResourceTable(int module) {
+        String moduleName = getModuleName(module);
+        String[] locales = Arrays.copyOf(Locale.getISOLanguages(), localeCount);
+        Resources.Package.Builder resPackage = Resources.Package.newBuilder()
+                .setPackageId(Resources.PackageId.newBuilder().setId(BASE_PACKAGE_ID - module))
+                .setPackageName(PACKAGE_NAME);
+        for (ResourceType type : ResourceType.values()) {
+            int count = resourceCounts.getOrDefault(type, 0);
+            if (count == 0)
+                continue;
+            Resources.Type.Builder resType = resPackage.addTypeBuilder()
+                    .setTypeId(Resources.TypeId.newBuilder().setId(type.ordinal() + 1))
+                    .setName(type.getTypeName());
+            for (int i = 0; i < count; i++) {
+                String name = getEntryName(moduleName, type, i);
+                Resources.Entry.Builder resEntry = resType.addEntryBuilder()
+                        .setEntryId(Resources.EntryId.newBuilder().setId(i))
+                        .setName(name);
+                switch (type) {
+                    case STRING -> {
+                        addValue(resEntry, Resources.Configuration.getDefaultInstance(), Resources.Item.newBuilder()
+                                .setStr(Resources.String.newBuilder().setValue("Synthetic string " + i)));
+                        for (String locale : locales)
+                            addValue(resEntry, Resources.Configuration.newBuilder().setLocale(locale).build(), Resources.Item.newBuilder()
+                                    .setStr(Resources.String.newBuilder().setValue("Synthetic string " + i + " (" + locale + ")")));
+                    }
+                    case COLOR -> addValue(resEntry, Resources.Configuration.getDefaultInstance(), Resources.Item.newBuilder()
+                            .setPrim(Resources.Primitive.newBuilder().setColorArgb8Value(0xff000000 | i)));
+                    default -> addValue(resEntry, Resources.Configuration.getDefaultInstance(), Resources.Item.newBuilder()
+                            .setFile(Resources.FileReference.newBuilder()
+                                    .setPath(getFilePath(type, name))
+                                    .setType(type.fileType)));
+                }
+            }
+        }
+        return Resources.ResourceTable.newBuilder().addPackage(resPackage).build();
+    }
+
+    /**
+     * Generates the files of the file resources of a module.
+     *
+     * @param module The index of the module, 0 being the base module.
+     * @return The module entries.
+     */
+    private @NotNull List<ModuleEntry> buildEntries(int module) {
+        String moduleName = getModuleName(module);
+        Random random = new Random(seed * 31 + module);
+        List<ModuleEntry> entries = new ArrayList<>();
+        for (ResourceType type : ResourceType.values()) {
+            int count = resourceCounts.getOrDefault(type, 0);
+            if (!type.hasFile() || count == 0)
+                continue;
+            long[] contentSeeds = new long[count];
+            for (int i = 0; i < count; i++) {
+                contentSeeds[i] = i > 0 && random.nextDouble() < duplicateRatio
+                        ? contentSeeds[random.nextInt(i)]
+                        : random.nextLong();
+                entries.add(ModuleEntry.builder()
+                        .setPath(ZipPath.create(getFilePath(type, getEntryName(moduleName, type, i))))
+                        .setContent(type == ResourceType.LAYOUT ? buildLayout(contentSeeds[i]) : new RandomContent(contentSeeds[i], fileSize))
+                        .build());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Generates a layout file: a proto XML document with text views, about as large as the configured file size.
+     *
+     * @param contentSeed The seed of the layout.
+     * @return The layout content.
+     */
+    private @NotNull ByteSource buildLayout(long contentSeed) {
+        Random random = new Random(contentSeed);
+        Resources.XmlElement.Builder layout = Resources.XmlElement.newBuilder().setName("LinearLayout");
+        for (int size = 0; size < fileSize; size += 64) {
+            layout.addChild(Resources.XmlNode.newBuilder().setElement(Resources.XmlElement.newBuilder()
+                    .setName("TextView")
+                    .addAttribute(Resources.XmlAttribute.newBuilder()
+                            .setNamespaceUri("http://schemas.android.com/apk/res/android")
+                            .setName("text")
+                            .setValue("text" + random.nextInt()))));
+        }
+        return ByteSource.wrap(Resources.XmlNode.newBuilder().setElement(layout).build().toByteArray());
+    }
+
+    /**
+     * Generates the manifest of a module.
+     *
+     * @param module The index of the module, 0 being the base module.
+     * @return The manifest in proto format.
+     */
+    private static Resources.XmlNode buildManifest(int module) {
+        Resources.XmlElement.Builder manifest = Resources.XmlElement.newBuilder()
+                .setName("manifest")
+                .addAttribute(Resources.XmlAttribute.newBuilder().setName("package").setValue(PACKAGE_NAME));
+        if (module > 0)
+            manifest.addAttribute(Resources.XmlAttribute.newBuilder().setName("split").setValue(getModuleName(module)));
+        return Resources.XmlNode.newBuilder().setElement(manifest).build();
+    }
+
+    /**
+     * Adds a value to a resource.
+     *
+     * @param resEntry      The resource.
+     * @param configuration The configuration of the value.
+     * @param item          The value.
+     */
+    private static void addValue(Resources.Entry.@NotNull Builder resEntry, Resources.Configuration configuration,
+                                 Resources.Item.Builder item) {
+        resEntry.addConfigValue(Resources.ConfigValue.newBuilder()
+                .setConfig(configuration)
+                .setValue(Resources.Value.newBuilder().setItem(item)));
+    }
+
+    /**
+     * Gets the entry name of a synthetic resource.
+     *
+     * @param moduleName The module name.
+     * @param type       The resource type.
+     * @param index      The index of the resource within its type.
+     * @return The entry name, e.g. base_drawable_12.
+     */
+    public static @NotNull String getEntryName(@NotNull String moduleName, @NotNull ResourceType type, int index) {
+        return moduleName + "_" + type.getTypeName() + "_" + index;
+    }
+
+    /**
+     * Gets the path of the file of a file resource.
+     *
+     * @param type The resource type.
+     * @param name The entry name.
+     * @return The path of the file in its module, e.g. res/drawable/base_drawable_12.png.
+     */
+    private static @NotNull String getFilePath(@NotNull ResourceType type, @NotNull String name) {
+        return BundleModule.RESOURCES_DIRECTORY + "/" + type.getTypeName() + "/" + name + type.fileSuffix;
+    }
+
+    /**
+     * Random file content, generated from its seed whenever it is read so large bundles are not held in memory.
+     */
+    private static class RandomContent extends ByteSource {
+        private final long contentSeed;
+        private final int size;
+
+        private RandomContent(long contentSeed, int size) {
+            this.contentSeed = contentSeed;
+            this.size = size;
+        }
+
+        @Override
+        public @NotNull InputStream openStream() {
+            byte[] content = new byte[size];
+            new Random(contentSeed).nextBytes(content);
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public com.google.common.base.Optional<Long> sizeIfKnown() {
+            return com.google.common.base.Optional.of((long) size);
+        }
+    }
+}
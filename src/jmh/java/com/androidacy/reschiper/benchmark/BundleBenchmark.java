@@ -0,0 +1,69 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.androidacy.reschiper.bundle.AppBundleAnalyzer;
+import com.androidacy.reschiper.bundle.BundleFile;
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The base of the benchmarks processing a synthetic app bundle, written once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class BundleBenchmark {
+    private static final int RESOURCES_PER_TYPE = 1000;
+    private static final int FILE_SIZE = 4096;
+    private static final double DUPLICATE_RATIO = 0.2;
+
+    @Param({"1", "10", "50"})
+    public int moduleCount;
+
+    protected Path workDirectory;
+    protected Path bundlePath;
+    protected Path outputDirectory;
+    protected BundleFile bundleFile;
+    protected AppBundle appBundle;
+
+    /**
+     * Writes the synthetic bundle and opens it.
+     *
+     * @throws IOException If the bundle can not be written or read.
+     */
+    @Setup(Level.Trial)
+    public void setUpBundle() throws IOException {
+        workDirectory = Files.createTempDirectory("reschiper-benchmark");
+        bundlePath = workDirectory.resolve("synthetic.aab");
+        outputDirectory = Files.createDirectories(workDirectory.resolve("output"));
+        new SyntheticBundleGenerator()
+                .withModuleCount(moduleCount)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.DRAWABLE, RESOURCES_PER_TYPE)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.STRING, RESOURCES_PER_TYPE)
+                .withFileSize(FILE_SIZE)
+                .withDuplicateRatio(DUPLICATE_RATIO)
+                .generate(bundlePath);
+        bundleFile = BundleFile.open(bundlePath);
+        appBundle = new AppBundleAnalyzer(bundleFile).analyze();
+    }
+
+    /**
+     * Closes the bundle and deletes the files of the trial.
+     *
+     * @throws IOException If the files can not be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDownBundle() throws IOException {
+        bundleFile.close();
+        FileUtils.deleteDirectory(workDirectory.toFile());
+    }
+}
@@ -0,0 +1,115 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.androidacy.reschiper.command.Command;
+import com.androidacy.reschiper.command.model.DuplicateResMergerCommand;
+import com.androidacy.reschiper.command.model.FileFilterCommand;
+import com.androidacy.reschiper.command.model.ObfuscateBundleCommand;
+import com.androidacy.reschiper.command.model.StringFilterCommand;
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of a whole obfuscation run, from reading a large synthetic bundle to writing the obfuscated bundle and
+ * its mapping. Every invocation is a cold run of {@link Command#execute(Command.TYPE)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CommandBenchmark {
+    private static final int RESOURCES_PER_TYPE = 1000;
+    private static final int FILE_SIZE = 4096;
+    private static final double DUPLICATE_RATIO = 0.2;
+    private static final int LOCALE_COUNT = 20;
+    private static final Set<String> WHITE_LIST = Set.of(
+            SyntheticBundleGenerator.PACKAGE_NAME + ".R.string.base_string_1*",
+            "*.R.layout.feature1_layout_?0"
+    );
+
+    @Param({"1", "10", "50"})
+    public int moduleCount;
+
+    @Param({"true", "false"})
+    public boolean fusedPipeline;
+
+    private Path workDirectory;
+    private Path outputDirectory;
+    private Command command;
+
+    /**
+     * Writes the synthetic bundle, with every resource type and translated strings, and builds the command.
+     *
+     * @throws IOException If the bundle can not be written.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("reschiper-benchmark");
+        Path bundlePath = workDirectory.resolve("synthetic.aab");
+        SyntheticBundleGenerator generator = new SyntheticBundleGenerator()
+                .withModuleCount(moduleCount)
+                .withFileSize(FILE_SIZE)
+                .withDuplicateRatio(DUPLICATE_RATIO)
+                .withLocaleCount(LOCALE_COUNT);
+        for (SyntheticBundleGenerator.ResourceType type : SyntheticBundleGenerator.ResourceType.values())
+            generator.withResourceCount(type, RESOURCES_PER_TYPE);
+        generator.generate(bundlePath);
+
+        Command.Builder builder = Command.builder();
+        builder.setBundlePath(bundlePath);
+        outputDirectory = Files.createDirectories(workDirectory.resolve("output"));
+        builder.setOutputPath(outputDirectory.resolve("obfuscated.aab"));
+        builder.setObfuscateBundleBuilder(ObfuscateBundleCommand.builder()
+                .setEnableObfuscate(true)
+                .setObfuscationMode("default")
+                .setWhiteList(WHITE_LIST)
+                .setMergeDuplicatedResources(true)
+                .setDisableSign(true)
+                .setFusedPipeline(fusedPipeline)
+                .build());
+        builder.setFileFilterBuilder(FileFilterCommand.builder().setFileFilterRules(Set.of()).build());
+        builder.setStringFilterBuilder(StringFilterCommand.builder().build());
+        builder.setDuplicateResMergeBuilder(DuplicateResMergerCommand.builder().build());
+        command = builder.build(builder.build(), Command.TYPE.OBFUSCATE_BUNDLE);
+    }
+
+    /**
+     * Deletes the obfuscated bundle, the mapping and the logs of the previous invocation, as the packager refuses
+     * to overwrite an existing bundle.
+     *
+     * @throws IOException If the files can not be deleted.
+     */
+    @Setup(Level.Invocation)
+    public void cleanOutput() throws IOException {
+        FileUtils.cleanDirectory(outputDirectory.toFile());
+    }
+
+    /**
+     * Deletes the files of the trial.
+     *
+     * @throws IOException If the files can not be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDirectory.toFile());
+    }
+
+    /**
+     * Obfuscates the bundle into the emptied output directory.
+     *
+     * @return The path of the obfuscated bundle.
+     * @throws Exception If the command fails.
+     */
+    @Benchmark
+    public Path obfuscateBundle() throws Exception {
+        return command.execute(Command.TYPE.OBFUSCATE_BUNDLE);
+    }
+}
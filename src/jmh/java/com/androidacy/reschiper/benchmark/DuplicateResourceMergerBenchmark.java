@@ -0,0 +1,26 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.androidacy.reschiper.command.extensions.DuplicateResourceMerger;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.IOException;
+
+/**
+ * Measures finding and removing the duplicated resource files of a synthetic bundle, without the fingerprint cache.
+ */
+public class DuplicateResourceMergerBenchmark extends BundleBenchmark {
+
+    /**
+     * Merges the duplicated resources of the bundle.
+     *
+     * @return The merged bundle.
+     * @throws IOException If the bundle can not be read.
+     */
+    @Benchmark
+    public AppBundle merge() throws IOException {
+        try (DuplicateResourceMerger merger = new DuplicateResourceMerger(bundleFile, appBundle, outputDirectory)) {
+            return merger.merge();
+        }
+    }
+}
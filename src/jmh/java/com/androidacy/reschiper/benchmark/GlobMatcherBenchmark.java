@@ -0,0 +1,94 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import com.androidacy.reschiper.utils.GlobMatcher;
+import com.androidacy.reschiper.utils.Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures matching resource names against whitelist rules with the compiled {@link GlobMatcher}, compared with
+ * matching every rule as its own regular expression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GlobMatcherBenchmark {
+    private static final int NAME_COUNT = 10000;
+
+    @Param({"10", "100", "1000"})
+    public int ruleCount;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+    private GlobMatcher matcher;
+
+    /**
+     * Generates the rules, a mix of literal names and prefix and single-character wildcards, and the names to
+     * match, of which about one in ten matches a rule.
+     */
+    @Setup
+    public void setUp() {
+        String typePrefix = SyntheticBundleGenerator.PACKAGE_NAME + ".R.";
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < ruleCount; i++) {
+            rules.add(switch (i % 3) {
+                case 0 -> typePrefix + "string.sdk" + i + "_*";
+                case 1 -> typePrefix + "drawable.ic_lib" + i + "_?";
+                default -> typePrefix + "layout.exact_" + i;
+            });
+        }
+        for (String rule : rules)
+            patterns.add(Pattern.compile(Utils.convertToPatternString(rule)));
+        matcher = new GlobMatcher(rules);
+        for (int i = 0; i < NAME_COUNT; i++) {
+            int rule = i % (ruleCount * 10);
+            names.add(switch (rule % 3) {
+                case 0 -> typePrefix + "string.sdk" + rule + "_title";
+                case 1 -> typePrefix + "drawable.ic_lib" + rule + "_a";
+                default -> typePrefix + "layout.exact_" + rule;
+            });
+        }
+    }
+
+    /**
+     * Matches every name against the rules one regular expression at a time.
+     *
+     * @return The number of matching names.
+     */
+    @Benchmark
+    public int regexLoop() {
+        int matches = 0;
+        for (String name : names) {
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(name).matches()) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Matches every name against the compiled rules.
+     *
+     * @return The number of matching names.
+     */
+    @Benchmark
+    public int globMatcher() {
+        int matches = 0;
+        for (String name : names) {
+            if (matcher.matches(name))
+                matches++;
+        }
+        return matches;
+    }
+}
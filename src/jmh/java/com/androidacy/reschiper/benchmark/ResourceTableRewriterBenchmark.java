@@ -0,0 +1,48 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.android.aapt.Resources;
+import com.androidacy.reschiper.bundle.ResourceTableRewriter;
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rewriting a tenth of the entries of a resource table in place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResourceTableRewriterBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int entryCount;
+
+    private Resources.ResourceTable table;
+
+    /**
+     * Builds the source resource table, half drawables and half strings.
+     */
+    @Setup
+    public void setUp() {
+        table = new SyntheticBundleGenerator()
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.DRAWABLE, entryCount / 2)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.STRING, entryCount - entryCount / 2)
+                .buildResourceTable(0);
+    }
+
+    /**
+     * Renames every tenth entry of the table in place.
+     *
+     * @return The rewritten table.
+     */
+    @Benchmark
+    public Resources.ResourceTable rewrite() {
+        return ResourceTableRewriter.rewrite(table, entry -> entry.getEntry().getEntryId().getId() % 10 == 0
+                ? entry.getEntry().toBuilder().setName("r" + entry.getEntry().getEntryId().getId()).build()
+                : entry.getEntry());
+    }
+}
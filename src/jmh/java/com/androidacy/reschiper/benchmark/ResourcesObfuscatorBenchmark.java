@@ -0,0 +1,41 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.androidacy.reschiper.bundle.ModuleRewrite;
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import com.androidacy.reschiper.obfuscation.ResourcesObfuscator;
+import com.androidacy.reschiper.utils.ParallelExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Measures obfuscating all resources of a synthetic bundle, from deciding the names to rebuilding the modules.
+ */
+public class ResourcesObfuscatorBenchmark extends BundleBenchmark {
+    private static final Set<String> WHITE_LIST = Set.of(
+            SyntheticBundleGenerator.PACKAGE_NAME + ".R.string.base_string_1*",
+            "*.R.drawable.feature1_drawable_?0",
+            "res/drawable/feature2_drawable_10.png"
+    );
+
+    /**
+     * Obfuscates the bundle.
+     *
+     * @return The obfuscated modules.
+     * @throws IOException If the obfuscation fails.
+     */
+    @Benchmark
+    public List<BundleModule> obfuscate() throws IOException {
+        ResourcesObfuscator obfuscator = new ResourcesObfuscator(bundlePath, appBundle, WHITE_LIST, outputDirectory, null);
+        obfuscator.withMode(ResourcesObfuscator.MODE.DEFAULT);
+        List<ModuleRewrite> rewrites = new ArrayList<>();
+        for (BundleModule bundleModule : appBundle.getModules().values())
+            rewrites.add(new ModuleRewrite(bundleModule));
+        obfuscator.obfuscateBundleModules(rewrites);
+        return ParallelExecutor.map(rewrites, ModuleRewrite::build);
+    }
+}
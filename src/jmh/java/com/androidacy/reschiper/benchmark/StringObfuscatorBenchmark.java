@@ -0,0 +1,37 @@
+package com.androidacy.reschiper.benchmark;
+
+import com.androidacy.reschiper.obfuscation.StringObfuscator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generating the obfuscated names of one namespace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StringObfuscatorBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nameCount;
+
+    /**
+     * Generates names until the namespace holds the requested number of names.
+     *
+     * @return The generated names.
+     */
+    @Benchmark
+    public Set<String> generateNames() {
+        StringObfuscator obfuscator = new StringObfuscator();
+        Set<String> names = new HashSet<>();
+        while (names.size() < nameCount)
+            names.add(obfuscator.getReplaceString(names));
+        return names;
+    }
+}
@@ -13,6 +13,8 @@ public class Extension {
     private boolean enableFileFiltering = false;
     private boolean enableFilterStrings = false;
     private boolean mergeDuplicateResources = false;
+    private boolean fusedPipeline = false;
+    private boolean compressMapping = false;
     private Path mappingFile = null;
     private String obfuscatedBundleName = "obfuscated-bundle.aab";
     private String unusedStringFile = "";
@@ -60,6 +62,22 @@ public class Extension {
         this.mergeDuplicateResources = mergeDuplicateResources;
     }
 
+    public boolean getFusedPipeline() {
+        return fusedPipeline;
+    }
+
+    public void setFusedPipeline(boolean fusedPipeline) {
+        this.fusedPipeline = fusedPipeline;
+    }
+
+    public boolean getCompressMapping() {
+        return compressMapping;
+    }
+
+    public void setCompressMapping(boolean compressMapping) {
+        this.compressMapping = compressMapping;
+    }
+
     public Path getMappingFile() {
         return mappingFile;
     }
@@ -121,6 +139,8 @@ public class Extension {
                 "\tenableFileFiltering=" + enableFileFiltering + "\n" +
                 "\tenableFilterStrings=" + enableFilterStrings + "\n" +
                 "\tmergeDuplicateResources=" + mergeDuplicateResources + "\n" +
+                "\tfusedPipeline=" + fusedPipeline + "\n" +
+                "\tcompressMapping=" + compressMapping + "\n" +
                 "\tmappingFile=" + mappingFile + "\n" +
                 "\tobfuscatedBundleName=" + obfuscatedBundleName + "\n" +
                 "\tunusedStringFile=" + unusedStringFile + "\n" +
@@ -109,6 +109,8 @@ public class ResChiperPlugin implements Plugin<Project> {
         task.getEnableFileFiltering().set(extension.getEnableFileFiltering());
         task.getEnableFilterStrings().set(extension.getEnableFilterStrings());
         task.getMergeDuplicateResources().set(extension.getMergeDuplicateResources());
+        task.getFusedPipeline().set(extension.getFusedPipeline());
+        task.getCompressMapping().set(extension.getCompressMapping());
         task.getObfuscatedBundleName().set(extension.getObfuscatedBundleName());
         task.getUnusedStringFilePath().set(extension.getUnusedStringFile());
         task.getFileFilterList().set(extension.getFileFilterList());
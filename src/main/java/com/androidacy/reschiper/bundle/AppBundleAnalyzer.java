@@ -4,41 +4,36 @@ import com.android.tools.build.bundletool.model.AppBundle;
 import com.androidacy.reschiper.utils.TimeClock;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.util.zip.ZipFile;
-
-import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 
 /**
  * Utility class for analyzing Android App Bundles (AABs).
  */
 public class AppBundleAnalyzer {
 
-    private final Path bundlePath;
+    private final BundleFile bundleFile;
 
     /**
-     * Constructs an AppBundleAnalyzer with the provided AAB file path.
+     * Constructs an AppBundleAnalyzer with the provided AAB file.
      *
-     * @param bundlePath The path to the Android App Bundle (AAB) file.
-     * @throws IllegalArgumentException If the provided file path does not exist or is not readable.
+     * @param bundleFile The opened Android App Bundle (AAB) file.
      */
-    public AppBundleAnalyzer(Path bundlePath) {
-        checkFileExistsAndReadable(bundlePath);
-        this.bundlePath = bundlePath;
+    public AppBundleAnalyzer(BundleFile bundleFile) {
+        this.bundleFile = bundleFile;
     }
 
     /**
      * Analyzes the Android App Bundle (AAB) file and returns the parsed AppBundle.
+     * <p>
+     * The entry contents of the returned AppBundle are read lazily from the bundle file, which must stay open
+     * for as long as they are used.
      *
      * @return The parsed AppBundle.
      * @throws IOException If an I/O error occurs while analyzing the AAB file.
      */
-    // ZipFile intentionally not closed — AppBundle holds lazy ByteSources backed by it
     public AppBundle analyze() throws IOException {
         TimeClock timeClock = new TimeClock();
-        ZipFile bundleZip = new ZipFile(bundlePath.toFile());
-        AppBundle appBundle = AppBundle.buildFromZip(bundleZip);
+        AppBundle appBundle = AppBundle.buildFromZip(bundleFile.getZipFile());
         System.out.printf("Analysis of the bundle file completed, took %s%n", timeClock.getElapsedTime());
         return appBundle;
     }
-}
\ No newline at end of file
+}
@@ -2,19 +2,53 @@ package com.androidacy.reschiper.bundle;
 
 import com.android.tools.build.bundletool.io.AppBundleSerializer;
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModule.SpecialModuleEntry;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.androidacy.reschiper.utils.ParallelExecutor;
 import com.androidacy.reschiper.utils.TimeClock;
+import com.google.common.io.ByteSource;
+import com.google.protobuf.MessageLite;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
 
+import static com.android.tools.build.bundletool.model.AppBundle.BUNDLE_CONFIG_FILE_NAME;
+import static com.android.tools.build.bundletool.model.AppBundle.METADATA_DIRECTORY;
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
 
 /**
  * Utility class for packaging an Android App Bundle (AAB) and writing it to an output file.
+ * <p>
+ * When the source bundle is known (see {@link #withSourceBundle(BundleFile, AppBundle)}), entries whose content
+ * is still backed by the source file are copied with their compressed bytes and CRC as-is, and only new or
+ * modified content is compressed, concurrently on {@link #setParallelism(int) several threads} while the
+ * output is still written in a fixed order. Otherwise, or if the source bundle can not be copied from, the bundle is
+ * written by bundletool's {@link AppBundleSerializer}.
  */
 public class AppBundlePackager {
+    private static final Logger logger = Logger.getLogger(AppBundlePackager.class.getName());
+    private static final long MAX_IN_MEMORY_ENTRY_SIZE = 16 * 1024 * 1024;
     private final Path output;
     private final AppBundle appBundle;
+    private BundleFile sourceBundle;
+    private AppBundle sourceAppBundle;
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
+    private int copiedEntryCount = 0;
+    private int compressedEntryCount = 0;
 
     /**
      * Constructs an AppBundlePackager with the provided AppBundle and output path.
@@ -29,6 +63,26 @@ public class AppBundlePackager {
         checkFileDoesNotExist(output);
     }
 
+    /**
+     * Sets the bundle the AppBundle was analyzed from, enabling the copy of unchanged entries.
+     *
+     * @param sourceBundle    The source AAB file, which must stay open until packaging completes.
+     * @param sourceAppBundle The AppBundle as analyzed from the source file, before any modification.
+     */
+    public void withSourceBundle(BundleFile sourceBundle, AppBundle sourceAppBundle) {
+        this.sourceBundle = sourceBundle;
+        this.sourceAppBundle = sourceAppBundle;
+    }
+
+    /**
+     * Sets the number of threads compressing new or modified entries.
+     *
+     * @param parallelism The number of compression threads, 1 compresses on the writing thread only.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
     /**
      * Executes the packaging of the Android App Bundle (AAB) and writes it to the output file.
      *
@@ -42,8 +96,190 @@ public class AppBundlePackager {
                 ----------------------------------------
                 - Packaging the bundle...""");
         TimeClock timeClock = new TimeClock();
+        if (sourceBundle != null && sourceAppBundle != null) {
+            try {
+                writeWithPassthrough();
+                System.out.printf("- Copied %d unchanged entries, compressed %d entries%n", copiedEntryCount, compressedEntryCount);
+                System.out.printf("- Packaging completed in: %s%n\n", timeClock.getElapsedTime());
+                return;
+            } catch (ZipException e) {
+                logger.warning("- Unable to copy entries from the source bundle, falling back to full recompression: " + e.getMessage());
+                Files.deleteIfExists(output);
+            }
+        }
         AppBundleSerializer appBundleSerializer = new AppBundleSerializer();
         appBundleSerializer.writeToDisk(appBundle, output);
         System.out.printf("- Packaging completed in: %s%n\n", timeClock.getElapsedTime());
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the bundle in the same layout as {@link AppBundleSerializer}, copying every entry whose content
+     * is unchanged from the source bundle.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    private void writeWithPassthrough() throws IOException {
+        Map<ByteSource, String> sourceEntryNames = getSourceEntryNames();
+        // the raw reader belongs to the shared bundle handle, which is closed by its owner
+        BundleZipReader reader = sourceBundle.getRawReader();
+        List<PendingEntry> pendingEntries = new ArrayList<>();
+        addProtoEntry(pendingEntries, reader, BUNDLE_CONFIG_FILE_NAME, appBundle.getBundleConfig(), sourceAppBundle.getBundleConfig());
+        for (Map.Entry<ZipPath, ByteSource> entry : appBundle.getBundleMetadata().getFileContentMap().entrySet())
+            addEntry(pendingEntries, reader, METADATA_DIRECTORY.resolve(entry.getKey()).toString(), entry.getValue(),
+                    sourceEntryNames.get(entry.getValue()), false);
+        for (BundleModule module : appBundle.getModules().values()) {
+            String moduleDir = module.getName().getName() + "/";
+            for (ModuleEntry entry : module.getEntries())
+                addEntry(pendingEntries, reader, moduleDir + entry.getPath(), entry.getContent(),
+                        sourceEntryNames.get(entry.getContent()), entry.getForceUncompressed());
+            // special module files are not represented as module entries
+            BundleModule sourceModule = sourceAppBundle.getModules().get(module.getName());
+            addProtoEntry(pendingEntries, reader, moduleDir + SpecialModuleEntry.ANDROID_MANIFEST.getPath(),
+                    module.getAndroidManifest().getManifestRoot().getProto(),
+                    sourceModule == null ? null : sourceModule.getAndroidManifest().getManifestRoot().getProto());
+            if (module.getAssetsConfig().isPresent())
+                addProtoEntry(pendingEntries, reader, moduleDir + SpecialModuleEntry.ASSETS_TABLE.getPath(),
+                        module.getAssetsConfig().get(), sourceModule == null ? null : sourceModule.getAssetsConfig().orElse(null));
+            if (module.getNativeConfig().isPresent())
+                addProtoEntry(pendingEntries, reader, moduleDir + SpecialModuleEntry.NATIVE_LIBS_TABLE.getPath(),
+                        module.getNativeConfig().get(), sourceModule == null ? null : sourceModule.getNativeConfig().orElse(null));
+            if (module.getResourceTable().isPresent())
+                addProtoEntry(pendingEntries, reader, moduleDir + SpecialModuleEntry.RESOURCE_TABLE.getPath(),
+                        module.getResourceTable().get(), sourceModule == null ? null : sourceModule.getResourceTable().orElse(null));
+            if (module.getApexConfig().isPresent())
+                addProtoEntry(pendingEntries, reader, moduleDir + SpecialModuleEntry.APEX_TABLE.getPath(),
+                        module.getApexConfig().get(), sourceModule == null ? null : sourceModule.getApexConfig().orElse(null));
+            if (module.getRuntimeEnabledSdkConfig().isPresent())
+                addProtoEntry(pendingEntries, reader, moduleDir + SpecialModuleEntry.RUNTIME_ENABLED_SDK_CONFIG.getPath(),
+                        module.getRuntimeEnabledSdkConfig().get(), sourceModule == null ? null : sourceModule.getRuntimeEnabledSdkConfig().orElse(null));
+        }
+        writeEntries(reader, pendingEntries);
+    }
+
+    /**
+     * Writes the entries in order. Entries that need compression are deflated ahead of the writer on a
+     * work-stealing pool; at most {@code 2 * parallelism} entries are in flight, and entries too large to be
+     * held in memory are compressed while streaming on the writing thread.
+     *
+     * @param reader         The source bundle to copy raw entries from.
+     * @param pendingEntries The entries to write, in output order.
+     * @throws IOException If an I/O error occurs.
+     */
+    private void writeEntries(BundleZipReader reader, @NotNull List<PendingEntry> pendingEntries) throws IOException {
+        int window = parallelism * 2;
+        ExecutorService executor = parallelism > 1 ? Executors.newWorkStealingPool(parallelism) : null;
+        try (BundleZipWriter writer = new BundleZipWriter(output)) {
+            List<Future<BundleZipWriter.DeflatedContent>> futures = new ArrayList<>(Collections.nCopies(pendingEntries.size(), null));
+            int next = 0;
+            int inFlight = 0;
+            for (int i = 0; i < pendingEntries.size(); i++) {
+                while (executor != null && next < pendingEntries.size() && inFlight < window) {
+                    PendingEntry pendingEntry = pendingEntries.get(next);
+                    if (isDeflatedAhead(pendingEntry)) {
+                        futures.set(next, executor.submit(() -> BundleZipWriter.deflate(pendingEntry.content(), pendingEntry.compress())));
+                        inFlight++;
+                    }
+                    next++;
+                }
+                PendingEntry pendingEntry = pendingEntries.get(i);
+                Future<BundleZipWriter.DeflatedContent> future = futures.get(i);
+                if (pendingEntry.sourceEntry() != null) {
+                    writer.addRawEntry(pendingEntry.name(), reader, pendingEntry.sourceEntry());
+                    copiedEntryCount++;
+                } else if (future != null) {
+                    writer.addDeflatedEntry(pendingEntry.name(), future.get());
+                    futures.set(i, null);
+                    inFlight--;
+                    compressedEntryCount++;
+                } else {
+                    writer.addEntry(pendingEntry.name(), pendingEntry.content(), pendingEntry.compress());
+                    compressedEntryCount++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing bundle entries");
+        } catch (ExecutionException e) {
+            throw ParallelExecutor.unwrap(e);
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks whether an entry is compressed in memory on the pool rather than streamed by the writer.
+     *
+     * @param pendingEntry The entry to check.
+     * @return true if the entry needs compression and is known to be small enough to be held in memory.
+     */
+    private static boolean isDeflatedAhead(@NotNull PendingEntry pendingEntry) {
+        if (pendingEntry.sourceEntry() != null)
+            return false;
+        com.google.common.base.Optional<Long> size = pendingEntry.content().sizeIfKnown();
+        return size.isPresent() && size.get() <= MAX_IN_MEMORY_ENTRY_SIZE;
+    }
+
+    /**
+     * Indexes the contents of the source bundle by identity. Stages that keep an entry unchanged (or only
+     * rename it) pass its ByteSource along, so identity means the source bytes can be reused.
+     *
+     * @return The source entry path of every content backed by the source bundle.
+     */
+    private @NotNull Map<ByteSource, String> getSourceEntryNames() {
+        Map<ByteSource, String> sourceEntryNames = new IdentityHashMap<>();
+        for (Map.Entry<ZipPath, ByteSource> entry : sourceAppBundle.getBundleMetadata().getFileContentMap().entrySet())
+            sourceEntryNames.put(entry.getValue(), METADATA_DIRECTORY.resolve(entry.getKey()).toString());
+        for (BundleModule module : sourceAppBundle.getModules().values())
+            for (ModuleEntry entry : module.getEntries())
+                sourceEntryNames.put(entry.getContent(), module.getName().getName() + "/" + entry.getPath());
+        return sourceEntryNames;
+    }
+
+    /**
+     * Queues a file entry, to be copied from the source bundle when possible.
+     */
+    private void addEntry(List<PendingEntry> pendingEntries, BundleZipReader reader, String name, ByteSource content,
+                          @Nullable String sourceName, boolean forceUncompressed) {
+        BundleZipReader.Entry sourceEntry = sourceName == null ? null : reader.getEntry(sourceName);
+        if (sourceEntry != null && (!sourceEntry.isCopyable()
+                || (forceUncompressed && sourceEntry.method() != BundleZipWriter.METHOD_STORED)))
+            sourceEntry = null;
+        pendingEntries.add(new PendingEntry(name, sourceEntry, content, !forceUncompressed));
+    }
+
+    /**
+     * Queues a protocol buffer entry, to be copied from the source bundle if the message was not replaced.
+     * Otherwise the message is only serialized when its entry is compressed.
+     */
+    private void addProtoEntry(List<PendingEntry> pendingEntries, BundleZipReader reader, String name, MessageLite proto,
+                               @Nullable MessageLite sourceProto) {
+        BundleZipReader.Entry sourceEntry = reader.getEntry(name);
+        if (proto != sourceProto || sourceEntry == null || !sourceEntry.isCopyable())
+            sourceEntry = null;
+        ByteSource content = new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                return proto.toByteString().newInput();
+            }
+
+            @Override
+            public com.google.common.base.Optional<Long> sizeIfKnown() {
+                return com.google.common.base.Optional.of((long) proto.getSerializedSize());
+            }
+        };
+        pendingEntries.add(new PendingEntry(name, sourceEntry, content, true));
+    }
+
+    /**
+     * An entry waiting to be written.
+     *
+     * @param name        The path of the entry in the output bundle.
+     * @param sourceEntry The source bundle entry to copy, or null if the content must be compressed.
+     * @param content     The uncompressed content of the entry.
+     * @param compress    Whether the content is deflated or stored when it is not copied.
+     */
+    private record PendingEntry(String name, BundleZipReader.@Nullable Entry sourceEntry, ByteSource content,
+                                boolean compress) {
+    }
+}
@@ -9,74 +9,144 @@ import com.androidacy.reschiper.operations.FileOperation;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Utility methods for working with Android App Bundles (AABs).
  */
 public class AppBundleUtils {
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
 
     /**
      * Get the size of a specific entry within the AAB.
      *
-     * @param bundleZipFile The AAB as a ZipFile.
-     * @param entry         The ModuleEntry for the entry.
-     * @param bundleModule  The BundleModule containing the entry.
+     * @param bundleFile   The AAB file.
+     * @param entry        The ModuleEntry for the entry.
+     * @param bundleModule The BundleModule containing the entry.
      * @return The size of the entry in bytes.
      */
-    public static long getZipEntrySize(@NotNull ZipFile bundleZipFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) {
-        String path = String.format("%s/%s", bundleModule.getName().getName(), entry.getPath().toString());
-        ZipEntry bundleConfigEntry = bundleZipFile.getEntry(path);
-        return FileOperation.getZipPathFileSize(bundleZipFile, bundleConfigEntry);
+    public static long getZipEntrySize(@NotNull BundleFile bundleFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) {
+        MappedBundleReader reader = bundleFile.getMappedReader();
+        if (reader != null) {
+            int index = reader.indexOf(bundleModule.getName().getName(), entry.getPath().toString());
+            if (index >= 0)
+                return reader.getSize(index);
+        }
+        ZipEntry bundleConfigEntry = bundleFile.getEntry(getEntryName(entry, bundleModule));
+        return FileOperation.getZipPathFileSize(bundleFile.getZipFile(), bundleConfigEntry);
     }
 
     /**
      * Get the size of a specific entry within the AAB.
      *
-     * @param bundleZipFile The AAB as a ZipFile.
-     * @param zipPath       The ZipPath of the entry.
+     * @param bundleFile The AAB file.
+     * @param zipPath    The ZipPath of the entry.
      * @return The size of the entry in bytes.
      */
-    public static long getZipEntrySize(@NotNull ZipFile bundleZipFile, @NotNull ZipPath zipPath) {
+    public static long getZipEntrySize(@NotNull BundleFile bundleFile, @NotNull ZipPath zipPath) {
         String path = zipPath.toString();
-        ZipEntry bundleConfigEntry = bundleZipFile.getEntry(path);
-        return FileOperation.getZipPathFileSize(bundleZipFile, bundleConfigEntry);
+        MappedBundleReader reader = bundleFile.getMappedReader();
+        if (reader != null) {
+            int index = reader.indexOf(path);
+            if (index >= 0)
+                return reader.getSize(index);
+        }
+        ZipEntry bundleConfigEntry = bundleFile.getEntry(path);
+        return FileOperation.getZipPathFileSize(bundleFile.getZipFile(), bundleConfigEntry);
     }
 
     /**
      * Get the MD5 hash of a specific entry within the AAB.
      *
-     * @param bundleZipFile The AAB as a ZipFile.
-     * @param entry         The ModuleEntry for the entry.
-     * @param bundleModule  The BundleModule containing the entry.
+     * @param bundleFile   The AAB file.
+     * @param entry        The ModuleEntry for the entry.
+     * @param bundleModule The BundleModule containing the entry.
      * @return The MD5 hash as a hexadecimal string.
      */
-    public static @NotNull String getEntryMd5(@NotNull ZipFile bundleZipFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) {
-        String path = String.format("%s/%s", bundleModule.getName().getName(), entry.getPath().toString());
-        ZipEntry bundleConfigEntry = bundleZipFile.getEntry(path);
+    public static @NotNull String getEntryMd5(@NotNull BundleFile bundleFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) {
         try {
-            byte[] bs = ZipUtils.asByteSource(bundleZipFile, bundleConfigEntry).read();
-            return bytesToHexString(DigestUtils.md5(bs));
+            return getEntryMd5(bundleFile, getZipEntry(bundleFile, entry, bundleModule), new byte[DIGEST_BUFFER_SIZE]);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Get the MD5 hash of a specific entry within the AAB, streaming its content through the given buffer
+     * instead of reading it into memory at once. Stored entries are hashed straight from the mapped bundle.
+     *
+     * @param bundleFile The AAB file.
+     * @param zipEntry   The zip entry to hash.
+     * @param buffer     The buffer to read the entry content with, which can be reused between calls.
+     * @return The MD5 hash as a hexadecimal string.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static @NotNull String getEntryMd5(@NotNull BundleFile bundleFile, @NotNull ZipEntry zipEntry, byte @NotNull [] buffer) throws IOException {
+        MessageDigest digest = DigestUtils.getMd5Digest();
+        MappedBundleReader reader = bundleFile.getMappedReader();
+        int index = reader == null ? -1 : reader.indexOf(zipEntry.getName());
+        if (index >= 0) {
+            reader.digest(index, digest, buffer);
+        } else {
+            try (InputStream inputStream = bundleFile.getZipFile().getInputStream(zipEntry)) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1)
+                    digest.update(buffer, 0, read);
+            }
+        }
+        return bytesToHexString(digest.digest());
+    }
+
+    /**
+     * Get the zip entry of a module entry within the AAB.
+     *
+     * @param bundleFile   The AAB file.
+     * @param entry        The ModuleEntry for the entry.
+     * @param bundleModule The BundleModule containing the entry.
+     * @return The zip entry, carrying the sizes and CRC-32 from the central directory.
+     * @throws FileNotFoundException If the AAB does not contain the entry.
+     */
+    public static @NotNull ZipEntry getZipEntry(@NotNull BundleFile bundleFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) throws FileNotFoundException {
+        String path = getEntryName(entry, bundleModule);
+        ZipEntry zipEntry = bundleFile.getEntry(path);
+        if (zipEntry == null)
+            throw new FileNotFoundException("Entry not found in bundle: " + path);
+        return zipEntry;
+    }
+
     /**
      * Read the content of a specific entry within the AAB as bytes.
      *
-     * @param bundleZipFile The AAB as a ZipFile.
-     * @param entry         The ModuleEntry for the entry.
-     * @param bundleModule  The BundleModule containing the entry.
+     * @param bundleFile   The AAB file.
+     * @param entry        The ModuleEntry for the entry.
+     * @param bundleModule The BundleModule containing the entry.
      * @return The content of the entry as bytes.
      * @throws IOException If an I/O error occurs.
      */
-    public static byte[] readByte(@NotNull ZipFile bundleZipFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) throws IOException {
-        String path = String.format("%s/%s", bundleModule.getName().getName(), entry.getPath().toString());
-        ZipEntry bundleConfigEntry = bundleZipFile.getEntry(path);
-        return ZipUtils.asByteSource(bundleZipFile, bundleConfigEntry).read();
+    public static byte[] readByte(@NotNull BundleFile bundleFile, @NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) throws IOException {
+        MappedBundleReader reader = bundleFile.getMappedReader();
+        if (reader != null) {
+            int index = reader.indexOf(bundleModule.getName().getName(), entry.getPath().toString());
+            if (index >= 0)
+                return reader.read(index);
+        }
+        ZipEntry bundleConfigEntry = bundleFile.getEntry(getEntryName(entry, bundleModule));
+        return ZipUtils.asByteSource(bundleFile.getZipFile(), bundleConfigEntry).read();
+    }
+
+    /**
+     * Get the path of a module entry within the AAB.
+     *
+     * @param entry        The ModuleEntry for the entry.
+     * @param bundleModule The BundleModule containing the entry.
+     * @return The entry path, e.g. base/res/drawable/icon.png.
+     */
+    private static @NotNull String getEntryName(@NotNull ModuleEntry entry, @NotNull BundleModule bundleModule) {
+        return bundleModule.getName().getName() + "/" + entry.getPath();
     }
 
     /**
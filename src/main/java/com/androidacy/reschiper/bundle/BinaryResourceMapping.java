@@ -0,0 +1,331 @@
+package com.androidacy.reschiper.bundle;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the binary form of a {@link ResourceMapping}, written next to the text mapping so a later
+ * incremental obfuscation can load it without parsing text.
+ * <p>
+ * The file starts with a magic number and format version, then the size and CRC-32 of the text mapping file it
+ * was written with, so a text mapping edited or replaced afterwards is detected. Then follows a string table: the
+ * string count, the offsets of the strings in the UTF-8 data block (one more than strings, so every length is
+ * the difference of two offsets) and the data block itself. Every distinct string is stored once. Then follow the
+ * directory, resource and entry file sections, each with its record count and records of string indexes: raw
+ * name and obfuscated name, plus the resource id (or -1) for the resource and entry file sections. Records are
+ * sorted by raw name. All numbers are big-endian, the text mapping size is a long and the others are ints.
+ */
+public class BinaryResourceMapping {
+    public static final String FILE_EXTENSION = ".bin";
+    private static final int MAGIC = 0x52434d50; // "RCMP"
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NO_STRING = -1;
+
+    private BinaryResourceMapping() {
+    }
+
+    /**
+     * Gets the path of the binary mapping written next to a text mapping.
+     *
+     * @param mappingPath The path to the text mapping, e.g. resources-mapping.txt or resources-mapping.txt.gz.
+     * @return The path to the binary mapping, e.g. resources-mapping.bin.
+     */
+    public static @NotNull Path getBinaryMappingPath(@NotNull Path mappingPath) {
+        String fileName = mappingPath.getFileName().toString();
+        if (fileName.endsWith(ResourceMapping.GZIP_EXTENSION))
+            fileName = fileName.substring(0, fileName.length() - ResourceMapping.GZIP_EXTENSION.length());
+        int extension = fileName.lastIndexOf('.');
+        String baseName = extension > 0 ? fileName.substring(0, extension) : fileName;
+        return mappingPath.resolveSibling(baseName + FILE_EXTENSION);
+    }
+
+    /**
+     * Writes a mapping in the binary format.
+     *
+     * @param binaryPath              The path to the binary mapping file.
+     * @param mappingSize             The size of the text mapping file written with it.
+     * @param mappingCrc              The CRC-32 of the text mapping file written with it.
+     * @param dirMapping              The raw to obfuscated directory paths.
+     * @param resourceMapping         The raw to obfuscated resource names.
+     * @param entryFilesMapping       The raw to obfuscated entry file paths.
+     * @param resourceNameToIdMapping The ids of the resource names.
+     * @param resourcePathToIdMapping The ids of the entry file paths.
+     * @throws IOException If the file can not be written.
+     */
+    static void write(@NotNull Path binaryPath, long mappingSize, long mappingCrc, Map<String, String> dirMapping, Map<String, String> resourceMapping,
+                      Map<String, String> entryFilesMapping, Map<String, String> resourceNameToIdMapping,
+                      Map<String, String> resourcePathToIdMapping) throws IOException {
+        StringTable strings = new StringTable();
+        int[] dirRecords = strings.addSection(dirMapping, null);
+        int[] resourceRecords = strings.addSection(resourceMapping, resourceNameToIdMapping);
+        int[] entryFileRecords = strings.addSection(entryFilesMapping, resourcePathToIdMapping);
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(binaryPath), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(mappingSize);
+            output.writeInt((int) mappingCrc);
+            output.writeInt(strings.values.size());
+            int offset = 0;
+            output.writeInt(offset);
+            for (byte[] value : strings.values) {
+                offset += value.length;
+                output.writeInt(offset);
+            }
+            for (byte[] value : strings.values)
+                output.write(value);
+            writeSection(output, dirRecords, 2);
+            writeSection(output, resourceRecords, 3);
+            writeSection(output, entryFileRecords, 3);
+        }
+    }
+
+    /**
+     * Reads a binary mapping.
+     *
+     * @param binaryPath The path to the binary mapping file.
+     * @return The mapping.
+     * @throws IOException If the file can not be read or has an unknown format.
+     */
+    public static @NotNull ResourceMapping read(@NotNull Path binaryPath) throws IOException {
+        return Objects.requireNonNull(read(binaryPath, null));
+    }
+
+    /**
+     * Reads the binary mapping written with a text mapping, unless the text mapping changed since. The text
+     * mapping is only checksummed if its size matches.
+     *
+     * @param binaryPath  The path to the binary mapping file.
+     * @param mappingPath The path to the text mapping file.
+     * @return The mapping, or null if the binary mapping was written with another text mapping.
+     * @throws IOException If a file can not be read or the binary mapping has an unknown format.
+     */
+    public static @Nullable ResourceMapping readIfCurrent(@NotNull Path binaryPath, @NotNull Path mappingPath) throws IOException {
+        return read(binaryPath, mappingPath);
+    }
+
+    /**
+     * Computes the CRC-32 of a file.
+     *
+     * @param path The path to the file.
+     * @return The CRC-32.
+     * @throws IOException If the file can not be read.
+     */
+    static long checksum(@NotNull Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = Files.newInputStream(path)) {
+            int length;
+            while ((length = input.read(buffer)) != -1)
+                crc.update(buffer, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads a binary mapping.
+     *
+     * @param binaryPath  The path to the binary mapping file.
+     * @param mappingPath The path to the text mapping file the binary mapping must have been written with, or null
+     *                    to read it regardless.
+     * @return The mapping, or null if it was written with another text mapping.
+     * @throws IOException If a file can not be read or the binary mapping has an unknown format.
+     */
+    private static @Nullable ResourceMapping read(@NotNull Path binaryPath, @Nullable Path mappingPath) throws IOException {
+        // read onto the heap rather than mapped, so the file can be replaced by the next mapping right away
+        if (Files.size(binaryPath) > Integer.MAX_VALUE - 8)
+            throw new IOException("Binary mapping too large: " + binaryPath);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(binaryPath));
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a binary resource mapping: " + binaryPath);
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported binary resource mapping version " + version + ": " + binaryPath);
+            long mappingSize = buffer.getLong();
+            int mappingCrc = buffer.getInt();
+            if (mappingPath != null
+                    && (mappingSize != Files.size(mappingPath) || mappingCrc != (int) checksum(mappingPath)))
+                return null;
+            StringReader strings = new StringReader(buffer);
+            ResourceMapping mapping = new ResourceMapping();
+            int dirCount = readCount(buffer, 2);
+            for (int i = 0; i < dirCount; i++)
+                mapping.putDirMapping(strings.get(buffer.getInt()), strings.get(buffer.getInt()));
+            int resourceCount = readCount(buffer, 3);
+            for (int i = 0; i < resourceCount; i++) {
+                String rawName = strings.get(buffer.getInt());
+                mapping.putResourceMapping(rawName, strings.get(buffer.getInt()));
+                String id = strings.getOrNull(buffer.getInt());
+                if (id != null)
+                    mapping.addResourceNameAndId(rawName, id);
+            }
+            int entryFileCount = readCount(buffer, 3);
+            for (int i = 0; i < entryFileCount; i++) {
+                String rawPath = strings.get(buffer.getInt());
+                mapping.putEntryFileMapping(rawPath, strings.get(buffer.getInt()));
+                String id = strings.getOrNull(buffer.getInt());
+                if (id != null)
+                    mapping.addResourcePathAndId(rawPath, id);
+            }
+            return mapping;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated binary resource mapping: " + binaryPath, e);
+        }
+    }
+
+    /**
+     * Writes the records of a section.
+     *
+     * @param output       The output.
+     * @param records      The string indexes of all records.
+     * @param recordLength The number of string indexes per record.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeSection(@NotNull DataOutputStream output, int @NotNull [] records, int recordLength) throws IOException {
+        output.writeInt(records.length / recordLength);
+        for (int record : records)
+            output.writeInt(record);
+    }
+
+    /**
+     * Reads the record count of a section, checking that its records fit in the file.
+     *
+     * @param buffer       The file content, positioned at the section.
+     * @param recordLength The number of string indexes per record.
+     * @return The record count.
+     * @throws IOException If the count is invalid.
+     */
+    private static int readCount(@NotNull ByteBuffer buffer, int recordLength) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * recordLength * Integer.BYTES > buffer.remaining())
+            throw new IOException("Invalid binary resource mapping record count " + count);
+        return count;
+    }
+
+    /**
+     * The strings of a mapping being written, each stored once.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        /**
+         * Adds the strings of a mapping section.
+         *
+         * @param mapping The raw to obfuscated names.
+         * @param ids     The ids of the raw names, or null if the section has none.
+         * @return The string indexes of the records, sorted by raw name.
+         */
+        private int @NotNull [] addSection(@NotNull Map<String, String> mapping, @Nullable Map<String, String> ids) {
+            int recordLength = ids == null ? 2 : 3;
+            int[] records = new int[mapping.size() * recordLength];
+            int position = 0;
+            for (String key : new TreeSet<>(mapping.keySet())) {
+                records[position++] = add(key);
+                records[position++] = add(mapping.get(key));
+                if (ids != null) {
+                    String id = ids.get(key);
+                    records[position++] = id == null ? NO_STRING : add(id);
+                }
+            }
+            return records;
+        }
+
+        /**
+         * Adds a string, unless it is already in the table.
+         *
+         * @param value The string.
+         * @return The index of the string.
+         */
+        private int add(@NotNull String value) {
+            return indexes.computeIfAbsent(value, key -> {
+                values.add(key.getBytes(StandardCharsets.UTF_8));
+                return values.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * The string table of a binary mapping being read, decoding every string once on first use.
+     */
+    private static class StringReader {
+        private final ByteBuffer buffer;
+        private final int offsetsPosition;
+        private final int dataPosition;
+        private final String[] strings;
+
+        /**
+         * Reads the string table header and moves the buffer past the table.
+         *
+         * @param buffer The file content, positioned at the string table.
+         * @throws IOException If the table is invalid.
+         */
+        private StringReader(@NotNull ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            int count = buffer.getInt();
+            if (count < 0 || ((long) count + 1) * Integer.BYTES > buffer.remaining())
+                throw new IOException("Invalid binary resource mapping string count " + count);
+            offsetsPosition = buffer.position();
+            dataPosition = offsetsPosition + (count + 1) * Integer.BYTES;
+            int dataSize = buffer.getInt(offsetsPosition + count * Integer.BYTES);
+            if (dataSize < 0 || dataSize > buffer.limit() - dataPosition)
+                throw new IOException("Invalid binary resource mapping string data size " + dataSize);
+            strings = new String[count];
+            buffer.position(dataPosition + dataSize);
+        }
+
+        /**
+         * Gets a string of the table.
+         *
+         * @param index The index of the string.
+         * @return The string.
+         * @throws IOException If the index is invalid.
+         */
+        private @NotNull String get(int index) throws IOException {
+            String value = getOrNull(index);
+            if (value == null)
+                throw new IOException("Missing string in binary resource mapping");
+            return value;
+        }
+
+        /**
+         * Gets a string of the table, which may be absent.
+         *
+         * @param index The index of the string, or -1 if there is none.
+         * @return The string, or null if there is none.
+         * @throws IOException If the index is invalid.
+         */
+        private @Nullable String getOrNull(int index) throws IOException {
+            if (index == NO_STRING)
+                return null;
+            if (index < 0 || index >= strings.length)
+                throw new IOException("Invalid binary resource mapping string index " + index);
+            String value = strings[index];
+            if (value == null) {
+                int start = buffer.getInt(offsetsPosition + index * Integer.BYTES);
+                int end = buffer.getInt(offsetsPosition + (index + 1) * Integer.BYTES);
+                if (start < 0 || end < start || dataPosition + end > buffer.limit())
+                    throw new IOException("Invalid binary resource mapping string offsets " + start + ".." + end);
+                byte[] bytes = new byte[end - start];
+                buffer.get(dataPosition + start, bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+                strings[index] = value;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.androidacy.reschiper.bundle;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
+
+/**
+ * A shared, reference-counted handle on the input Android App Bundle (AAB).
+ * <p>
+ * The bundle is opened once and every stage reads through the same {@link ZipFile}, which also backs the lazy
+ * entry contents of the analyzed {@link com.android.tools.build.bundletool.model.AppBundle}, as bundletool only reads
+ * bundles through a ZipFile. Raw and memory-mapped access share a second, primitive index of the central directory
+ * built by the {@link BundleZipReader}, so the directory is parsed at most twice whatever the number of stages.
+ * Stages keeping the handle beyond a call {@link #retain()} it and close their reference when done; the file is
+ * closed when the last reference is closed, which happens after packaging has consumed all entry contents.
+ */
+public class BundleFile implements Closeable {
+    private static final Logger logger = Logger.getLogger(BundleFile.class.getName());
+    private final Path bundlePath;
+    private final ZipFile zipFile;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private BundleZipReader rawReader;
+    private MappedBundleReader mappedReader;
+    private boolean mappingFailed = false;
+
+    /**
+     * Opens a bundle, holding one reference to it.
+     *
+     * @param bundlePath The path to the AAB file.
+     * @throws IOException If the file can not be opened as a zip archive.
+     */
+    private BundleFile(@NotNull Path bundlePath) throws IOException {
+        this.bundlePath = bundlePath;
+        this.zipFile = new ZipFile(bundlePath.toFile());
+    }
+
+    /**
+     * Opens a bundle. The caller owns the returned reference and must close it.
+     *
+     * @param bundlePath The path to the AAB file.
+     * @return The handle on the bundle.
+     * @throws IOException If the file can not be opened as a zip archive.
+     */
+    @Contract("_ -> new")
+    public static @NotNull BundleFile open(@NotNull Path bundlePath) throws IOException {
+        checkFileExistsAndReadable(bundlePath);
+        return new BundleFile(bundlePath);
+    }
+
+    /**
+     * Takes another reference to the bundle, which must be closed separately.
+     *
+     * @return This handle.
+     * @throws IllegalStateException If the bundle is already closed.
+     */
+    public BundleFile retain() {
+        references.getAndUpdate(count -> {
+            if (count <= 0)
+                throw new IllegalStateException("Bundle already closed: " + bundlePath);
+            return count + 1;
+        });
+        return this;
+    }
+
+    /**
+     * Gets the path of the bundle.
+     *
+     * @return The path to the AAB file.
+     */
+    public Path getPath() {
+        return bundlePath;
+    }
+
+    /**
+     * Gets the bundle as a ZipFile, which can be read concurrently.
+     *
+     * @return The shared ZipFile.
+     */
+    public ZipFile getZipFile() {
+        return zipFile;
+    }
+
+    /**
+     * Gets an entry of the bundle by its full path.
+     *
+     * @param name The entry path, e.g. base/res/drawable/icon.png.
+     * @return The entry, or null if the bundle does not contain it.
+     */
+    public @Nullable ZipEntry getEntry(@NotNull String name) {
+        return zipFile.getEntry(name);
+    }
+
+    /**
+     * Gets the reader for the raw compressed data of the entries, indexing the central directory on first use.
+     *
+     * @return The shared raw reader.
+     * @throws IOException If the bundle is not a supported zip archive for raw access.
+     */
+    public synchronized BundleZipReader getRawReader() throws IOException {
+        if (rawReader == null)
+            rawReader = new BundleZipReader(bundlePath);
+        return rawReader;
+    }
+
+    /**
+     * Gets the memory-mapped reader of the bundle, mapping it on first use. It shares the index of the
+     * {@link #getRawReader() raw reader}, and is unmapped when the last reference to the bundle is closed.
+     *
+     * @return The shared mapped reader, or null if the bundle can not be mapped, in which case entries are
+     * read through {@link #getZipFile()}.
+     */
+    public synchronized @Nullable MappedBundleReader getMappedReader() {
+        if (mappedReader == null && !mappingFailed) {
+            try {
+                mappedReader = new MappedBundleReader(getRawReader());
+            } catch (IOException e) {
+                logger.warning("- Unable to map the bundle, reading entries through ZipFile: " + e.getMessage());
+                mappingFailed = true;
+            }
+        }
+        return mappedReader;
+    }
+
+    /**
+     * Closes this reference, and the bundle if it was the last one.
+     *
+     * @throws IOException If an I/O error occurs while closing the bundle.
+     */
+    @Override
+    public void close() throws IOException {
+        int count = references.decrementAndGet();
+        if (count > 0)
+            return;
+        if (count < 0)
+            throw new IllegalStateException("Bundle closed more often than retained: " + bundlePath);
+        try {
+            synchronized (this) {
+                if (mappedReader != null)
+                    mappedReader.close();
+                if (rawReader != null)
+                    rawReader.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+}
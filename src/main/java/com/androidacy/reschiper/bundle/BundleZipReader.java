@@ -0,0 +1,486 @@
+package com.androidacy.reschiper.bundle;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of an Android App Bundle (AAB) and gives access to the raw, still compressed
+ * bytes of its entries, so unchanged entries can be copied to a new archive without inflating them.
+ * <p>
+ * The central directory is indexed once into primitive arrays and an open-addressing hash table keyed by the
+ * UTF-8 bytes of the entry names, so a lookup neither builds a path string nor allocates an entry object. This
+ * index is shared with the {@link MappedBundleReader} serving the entry contents from a memory mapping.
+ * <p>
+ * Zip64 archives are not supported, a {@link ZipException} is thrown when opening one. Entries are addressed by
+ * their index, as returned by {@link #indexOf(String)}.
+ */
+public class BundleZipReader implements Closeable {
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int MAX_COMMENT_SIZE = 0xFFFF;
+    static final int FLAG_ENCRYPTED = 1;
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final FileChannel channel;
+    private final ByteBuffer directory;
+    private final int entryCount;
+    private final int[] table;
+    private final int mask;
+    private final int[] nameHashes;
+    private final int[] nameOffsets;
+    private final int[] nameLengths;
+    private final int[] flags;
+    private final int[] methods;
+    private final long[] crcs;
+    private final long[] sizes;
+    private final long[] compressedSizes;
+    private final long[] localHeaderOffsets;
+    // the length of every local header, resolved on first use, concurrent resolutions compute the same value
+    private final int[] localHeaderLengths;
+
+    /**
+     * Opens an AAB file and indexes its central directory.
+     *
+     * @param bundlePath The path to the AAB file.
+     * @throws IOException If the file can not be read or is not a supported zip archive.
+     */
+    public BundleZipReader(@NotNull Path bundlePath) throws IOException {
+        channel = FileChannel.open(bundlePath, StandardOpenOption.READ);
+        long directoryOffset;
+        try {
+            long fileSize = channel.size();
+            int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(fileSize - tailSize, tailSize);
+            int eocd = findEndOfCentralDirectory(tail);
+            entryCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+            long directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+            directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+            if (directoryOffset + directorySize > fileSize - tailSize + eocd)
+                throw new ZipException("Invalid central directory location");
+            directory = read(directoryOffset, (int) directorySize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        nameHashes = new int[entryCount];
+        nameOffsets = new int[entryCount];
+        nameLengths = new int[entryCount];
+        flags = new int[entryCount];
+        methods = new int[entryCount];
+        crcs = new long[entryCount];
+        sizes = new long[entryCount];
+        compressedSizes = new long[entryCount];
+        localHeaderOffsets = new long[entryCount];
+        localHeaderLengths = new int[entryCount];
+        Arrays.fill(localHeaderLengths, -1);
+        // at most half full, so probe sequences stay short
+        table = new int[Math.max(2, Integer.highestOneBit(Math.max(1, entryCount)) << 2)];
+        mask = table.length - 1;
+        try {
+            indexCentralDirectory(directoryOffset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of entries in the archive.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Finds an entry by its full path.
+     *
+     * @param name The entry path, e.g. base/res/drawable/icon.png.
+     * @return The index of the entry, or -1 if the archive does not contain it.
+     */
+    public int indexOf(@NotNull String name) {
+        return indexOf(null, name);
+    }
+
+    /**
+     * Finds an entry by its directory and its path within that directory, without concatenating them.
+     *
+     * @param directory The directory of the entry, e.g. the module name, or null for a full path.
+     * @param name      The path of the entry within the directory, e.g. res/drawable/icon.png.
+     * @return The index of the entry, or -1 if the archive does not contain it.
+     */
+    public int indexOf(@Nullable String directory, @NotNull String name) {
+        if ((directory != null && !isAscii(directory)) || !isAscii(name))
+            return indexOf((directory == null ? name : directory + "/" + name).getBytes(StandardCharsets.UTF_8));
+        int hash = FNV_OFFSET_BASIS;
+        int length = name.length();
+        if (directory != null) {
+            hash = hash(hash(hash, directory), '/');
+            length += directory.length() + 1;
+        }
+        hash = hash(hash, name);
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (nameHashes[index] == hash && nameLengths[index] == length && nameEquals(index, directory, name))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets an entry of the archive by its full path.
+     *
+     * @param name The entry path, e.g. base/res/drawable/icon.png.
+     * @return The entry, or null if the archive does not contain it.
+     */
+    public @Nullable Entry getEntry(@NotNull String name) {
+        int index = indexOf(name);
+        if (index == -1)
+            return null;
+        return new Entry(name, flags[index], methods[index], crcs[index], compressedSizes[index], sizes[index],
+                localHeaderOffsets[index]);
+    }
+
+    /**
+     * Gets the full path of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The entry path.
+     */
+    public @NotNull String getName(int index) {
+        byte[] name = new byte[nameLengths[index]];
+        directory.get(nameOffsets[index], name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the general purpose bit flags of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The flags.
+     */
+    public int getFlags(int index) {
+        return flags[index];
+    }
+
+    /**
+     * Gets the compression method of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The compression method.
+     */
+    public int getMethod(int index) {
+        return methods[index];
+    }
+
+    /**
+     * Gets the CRC-32 of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The CRC-32 of the uncompressed data.
+     */
+    public long getCrc(int index) {
+        return crcs[index];
+    }
+
+    /**
+     * Gets the uncompressed size of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The size in bytes.
+     */
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * Gets the stored size of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The compressed size in bytes.
+     */
+    public long getCompressedSize(int index) {
+        return compressedSizes[index];
+    }
+
+    /**
+     * Copies the raw (still compressed) data of an entry to a channel.
+     *
+     * @param entry  The entry to copy.
+     * @param target The channel to copy the data to.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void transferRawTo(@NotNull Entry entry, @NotNull WritableByteChannel target) throws IOException {
+        long position = entry.localHeaderOffset() + readLocalHeaderLength(entry.localHeaderOffset(), entry.name());
+        long remaining = entry.compressedSize();
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0)
+                throw new ZipException("Unexpected end of entry data: " + entry.name());
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Gets the offset of the entry data, which follows the variable sized local file header.
+     *
+     * @param index The index of the entry.
+     * @return The offset of the first data byte in the archive.
+     * @throws IOException If the local header can not be read.
+     */
+    long getDataOffset(int index) throws IOException {
+        int localHeaderLength = localHeaderLengths[index];
+        if (localHeaderLength == -1) {
+            localHeaderLength = readLocalHeaderLength(localHeaderOffsets[index], getName(index));
+            localHeaderLengths[index] = localHeaderLength;
+        }
+        return localHeaderOffsets[index] + localHeaderLength;
+    }
+
+    /**
+     * Maps the whole archive read-only. The mapping stays valid until it is unmapped or garbage collected,
+     * independently of this reader.
+     *
+     * @return The mapping.
+     * @throws IOException If the archive can not be mapped.
+     */
+    @NotNull MappedByteBuffer map() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE)
+            throw new ZipException("Archives larger than 2 GiB can not be mapped");
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads all central directory headers into the index.
+     *
+     * @param directoryOffset The offset of the central directory, which every entry must end before.
+     * @throws IOException If a header is invalid.
+     */
+    private void indexCentralDirectory(long directoryOffset) throws IOException {
+        int position = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (position + CENTRAL_DIRECTORY_HEADER_SIZE > directory.capacity() || directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE)
+                throw new ZipException("Invalid central directory header at entry " + i);
+            flags[i] = Short.toUnsignedInt(directory.getShort(position + 8));
+            methods[i] = Short.toUnsignedInt(directory.getShort(position + 10));
+            crcs[i] = Integer.toUnsignedLong(directory.getInt(position + 16));
+            compressedSizes[i] = Integer.toUnsignedLong(directory.getInt(position + 20));
+            sizes[i] = Integer.toUnsignedLong(directory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            localHeaderOffsets[i] = Integer.toUnsignedLong(directory.getInt(position + 42));
+            if (localHeaderOffsets[i] + compressedSizes[i] > directoryOffset)
+                throw new ZipException("Invalid entry location at entry " + i);
+            nameOffsets[i] = position + CENTRAL_DIRECTORY_HEADER_SIZE;
+            nameLengths[i] = nameLength;
+            if (nameOffsets[i] + nameLength > directory.capacity())
+                throw new ZipException("Invalid central directory header at entry " + i);
+
+            int hash = FNV_OFFSET_BASIS;
+            for (int j = 0; j < nameLength; j++)
+                hash = (hash ^ (directory.get(nameOffsets[i] + j) & 0xFF)) * FNV_PRIME;
+            nameHashes[i] = hash;
+            int slot = hash & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Locates the end of central directory record in the tail of the archive.
+     *
+     * @param tail The last bytes of the archive, long enough to hold the record and a maximal comment.
+     * @return The offset of the record in the tail.
+     * @throws ZipException If the record is missing or the archive uses Zip64.
+     */
+    private static int findEndOfCentralDirectory(@NotNull ByteBuffer tail) throws ZipException {
+        for (int i = tail.capacity() - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                if (i >= ZIP64_LOCATOR_SIZE && tail.getInt(i - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE)
+                    throw new ZipException("Zip64 archives are not supported");
+                return i;
+            }
+        }
+        throw new ZipException("End of central directory record not found");
+    }
+
+    /**
+     * Reads the length of a local file header, including the name and extra field that may differ from the
+     * central directory.
+     *
+     * @param localHeaderOffset The offset of the local header.
+     * @param name              The entry name, for error messages.
+     * @return The length of the local header.
+     * @throws IOException If the local header can not be read.
+     */
+    private int readLocalHeaderLength(long localHeaderOffset, @NotNull String name) throws IOException {
+        ByteBuffer header = read(localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException("Invalid local header for entry: " + name);
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        return LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Reads a region of the archive into a little-endian buffer.
+     *
+     * @param offset The offset of the region.
+     * @param length The length of the region.
+     * @return The buffer containing the region.
+     * @throws IOException If the region can not be read completely.
+     */
+    private @NotNull ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new ZipException("Unexpected end of archive");
+        }
+        return buffer.clear();
+    }
+
+    /**
+     * Finds an entry by the UTF-8 bytes of its full path.
+     *
+     * @param name The encoded entry path.
+     * @return The index of the entry, or -1 if the archive does not contain it.
+     */
+    private int indexOf(byte @NotNull [] name) {
+        int hash = FNV_OFFSET_BASIS;
+        for (byte b : name)
+            hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (nameHashes[index] != hash || nameLengths[index] != name.length)
+                continue;
+            int offset = nameOffsets[index];
+            int i = 0;
+            while (i < name.length && directory.get(offset + i) == name[i])
+                i++;
+            if (i == name.length)
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the name of an entry with an ASCII directory and path.
+     *
+     * @param index     The index of the entry.
+     * @param directory The directory, or null.
+     * @param name      The path within the directory.
+     * @return true if the entry has this path.
+     */
+    private boolean nameEquals(int index, @Nullable String directory, @NotNull String name) {
+        int offset = nameOffsets[index];
+        if (directory != null) {
+            for (int i = 0; i < directory.length(); i++) {
+                if (this.directory.get(offset++) != directory.charAt(i))
+                    return false;
+            }
+            if (this.directory.get(offset++) != '/')
+                return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (this.directory.get(offset++) != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a string only has ASCII characters, which are encoded as one UTF-8 byte each.
+     *
+     * @param value The string.
+     * @return true if every character is ASCII.
+     */
+    private static boolean isAscii(@NotNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Continues the FNV-1a hash of an entry name with the characters of an ASCII string.
+     *
+     * @param hash  The hash so far.
+     * @param value The string.
+     * @return The updated hash.
+     */
+    private static int hash(int hash, @NotNull String value) {
+        for (int i = 0; i < value.length(); i++)
+            hash = hash(hash, value.charAt(i));
+        return hash;
+    }
+
+    /**
+     * Continues the FNV-1a hash of an entry name with an ASCII character.
+     *
+     * @param hash  The hash so far.
+     * @param value The character.
+     * @return The updated hash.
+     */
+    private static int hash(int hash, char value) {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * An entry of the central directory.
+     *
+     * @param name              The full path of the entry.
+     * @param flags             The general purpose bit flags.
+     * @param method            The compression method.
+     * @param crc               The CRC-32 of the uncompressed data.
+     * @param compressedSize    The size of the stored data.
+     * @param size              The size of the uncompressed data.
+     * @param localHeaderOffset The offset of the local file header.
+     */
+    public record Entry(String name, int flags, int method, long crc, long compressedSize, long size,
+                        long localHeaderOffset) {
+
+        /**
+         * Checks whether the entry data can be copied as-is into another archive.
+         *
+         * @return true if the entry is neither encrypted nor uses an unsupported compression method.
+         */
+        public boolean isCopyable() {
+            return (flags & FLAG_ENCRYPTED) == 0
+                    && (method == BundleZipWriter.METHOD_STORED || method == BundleZipWriter.METHOD_DEFLATED);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.androidacy.reschiper.bundle;
+
+import com.google.common.io.ByteSource;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+import static com.androidacy.reschiper.bundle.BundleZipReader.*;
+
+/**
+ * Writes a zip archive entry by entry, either copying the raw compressed data of an entry from a
+ * {@link BundleZipReader} or compressing new content.
+ * <p>
+ * Writing is single-threaded, but content can be compressed ahead of time on any thread with
+ * {@link #deflate(ByteSource, boolean)} and then added with {@link #addDeflatedEntry(String, DeflatedContent)}.
+ * <p>
+ * All entries get the same fixed timestamp, so the output only depends on the entries and their order.
+ * Zip64 is not supported, a {@link ZipException} is thrown when the archive outgrows the classic format.
+ */
+public class BundleZipWriter implements Closeable {
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    // 1981-01-01 00:00:00 in MS-DOS format
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 9) | (1 << 5) | 1;
+    private static final long MAX_CLASSIC_VALUE = 0xFFFFFFFFL;
+    private static final int MAX_CLASSIC_ENTRIES = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final List<CentralRecord> records = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final byte[] readBuffer = new byte[BUFFER_SIZE];
+    private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+    /**
+     * Creates a new archive at the given path.
+     *
+     * @param output The path of the archive, which must not exist yet.
+     * @throws IOException If the file can not be created.
+     */
+    public BundleZipWriter(@NotNull Path output) throws IOException {
+        channel = FileChannel.open(output, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Adds an entry by copying its raw compressed data from another archive.
+     *
+     * @param name   The path of the entry in this archive.
+     * @param reader The archive to copy from.
+     * @param entry  The entry to copy.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void addRawEntry(@NotNull String name, @NotNull BundleZipReader reader, @NotNull BundleZipReader.Entry entry) throws IOException {
+        long offset = startEntry(name);
+        CentralRecord record = new CentralRecord(encodeName(name), entry.method(), entry.crc(), entry.compressedSize(), entry.size(), offset);
+        writeLocalHeader(record);
+        reader.transferRawTo(entry, channel);
+        finishEntry(record);
+    }
+
+    /**
+     * Adds an entry whose content was already compressed by {@link #deflate(ByteSource, boolean)}.
+     *
+     * @param name    The path of the entry in this archive.
+     * @param content The compressed content.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void addDeflatedEntry(@NotNull String name, @NotNull DeflatedContent content) throws IOException {
+        long offset = startEntry(name);
+        CentralRecord record = new CentralRecord(encodeName(name), content.method(), content.crc(), content.data().length, content.size(), offset);
+        writeLocalHeader(record);
+        writeFully(ByteBuffer.wrap(content.data()));
+        finishEntry(record);
+    }
+
+    /**
+     * Compresses content in memory, independently of any writer, so it can run concurrently.
+     *
+     * @param content  The uncompressed content.
+     * @param compress Whether the content is deflated or stored.
+     * @return The compressed content.
+     * @throws IOException If the content can not be read.
+     */
+    public static @NotNull DeflatedContent deflate(@NotNull ByteSource content, boolean compress) throws IOException {
+        byte[] input = content.read();
+        CRC32 crc = new CRC32();
+        crc.update(input);
+        if (!compress)
+            return new DeflatedContent(METHOD_STORED, crc.getValue(), input.length, input);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 64);
+            try (DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(output, deflater, BUFFER_SIZE)) {
+                deflaterOutput.write(input);
+            }
+            return new DeflatedContent(METHOD_DEFLATED, crc.getValue(), input.length, output.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Adds an entry with the given content.
+     *
+     * @param name     The path of the entry in this archive.
+     * @param content  The uncompressed content of the entry.
+     * @param compress Whether the content is deflated or stored.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void addEntry(@NotNull String name, @NotNull ByteSource content, boolean compress) throws IOException {
+        long offset = startEntry(name);
+        byte[] encodedName = encodeName(name);
+        // sizes and CRC are only known after streaming the content, the local header is patched afterwards
+        writeLocalHeader(new CentralRecord(encodedName, compress ? METHOD_DEFLATED : METHOD_STORED, 0, 0, 0, offset));
+        CRC32 crc = new CRC32();
+        long size = 0;
+        long compressedSize = 0;
+        deflater.reset();
+        try (InputStream inputStream = content.openStream()) {
+            int read;
+            while ((read = inputStream.read(readBuffer)) != -1) {
+                crc.update(readBuffer, 0, read);
+                size += read;
+                if (compress) {
+                    deflater.setInput(readBuffer, 0, read);
+                    while (!deflater.needsInput())
+                        compressedSize += writeDeflated();
+                } else {
+                    writeFully(ByteBuffer.wrap(readBuffer, 0, read));
+                    compressedSize += read;
+                }
+            }
+        }
+        if (compress) {
+            deflater.finish();
+            while (!deflater.finished())
+                compressedSize += writeDeflated();
+        }
+        CentralRecord record = new CentralRecord(encodedName, compress ? METHOD_DEFLATED : METHOD_STORED, crc.getValue(), compressedSize, size, offset);
+        ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt((int) record.crc()).putInt((int) record.compressedSize()).putInt((int) record.size()).flip();
+        while (patch.hasRemaining())
+            channel.write(patch, offset + 14 + patch.position());
+        finishEntry(record);
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (records.size() > MAX_CLASSIC_ENTRIES)
+                throw new ZipException("Too many entries for a non-Zip64 archive: " + records.size());
+            long directoryOffset = channel.position();
+            for (CentralRecord record : records) {
+                ByteBuffer header = ByteBuffer.allocate(CENTRAL_DIRECTORY_HEADER_SIZE + record.name().length).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(CENTRAL_DIRECTORY_SIGNATURE)
+                        .putShort((short) versionNeeded(record))
+                        .putShort((short) versionNeeded(record))
+                        .putShort((short) FLAG_UTF8)
+                        .putShort((short) record.method())
+                        .putShort((short) DOS_TIME)
+                        .putShort((short) DOS_DATE)
+                        .putInt((int) record.crc())
+                        .putInt((int) record.compressedSize())
+                        .putInt((int) record.size())
+                        .putShort((short) record.name().length)
+                        .putShort((short) 0) // extra field length
+                        .putShort((short) 0) // comment length
+                        .putShort((short) 0) // disk number
+                        .putShort((short) 0) // internal attributes
+                        .putInt(0) // external attributes
+                        .putInt((int) record.localHeaderOffset())
+                        .put(record.name())
+                        .flip();
+                writeFully(header);
+            }
+            long directorySize = channel.position() - directoryOffset;
+            checkClassicValue(directoryOffset + directorySize, "central directory");
+            ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+                    .putShort((short) 0) // disk number
+                    .putShort((short) 0) // central directory disk
+                    .putShort((short) records.size())
+                    .putShort((short) records.size())
+                    .putInt((int) directorySize)
+                    .putInt((int) directoryOffset)
+                    .putShort((short) 0) // comment length
+                    .flip();
+            writeFully(end);
+        } finally {
+            deflater.end();
+            channel.close();
+        }
+    }
+
+    /**
+     * Validates the entry name and returns the offset of its local header.
+     */
+    private long startEntry(@NotNull String name) throws IOException {
+        if (!names.add(name))
+            throw new ZipException("Duplicate entry: " + name);
+        long offset = channel.position();
+        checkClassicValue(offset, name);
+        return offset;
+    }
+
+    /**
+     * Validates the sizes of a completely written entry and records it for the central directory.
+     */
+    private void finishEntry(@NotNull CentralRecord record) throws IOException {
+        checkClassicValue(record.compressedSize(), new String(record.name(), StandardCharsets.UTF_8));
+        checkClassicValue(record.size(), new String(record.name(), StandardCharsets.UTF_8));
+        records.add(record);
+    }
+
+    private void writeLocalHeader(@NotNull CentralRecord record) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + record.name().length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort((short) versionNeeded(record))
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) record.method())
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt((int) record.crc())
+                .putInt((int) record.compressedSize())
+                .putInt((int) record.size())
+                .putShort((short) record.name().length)
+                .putShort((short) 0) // extra field length
+                .put(record.name())
+                .flip();
+        writeFully(header);
+    }
+
+    private int writeDeflated() throws IOException {
+        int length = deflater.deflate(deflateBuffer);
+        if (length > 0)
+            writeFully(ByteBuffer.wrap(deflateBuffer, 0, length));
+        return length;
+    }
+
+    private void writeFully(@NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private static int versionNeeded(@NotNull CentralRecord record) {
+        return record.method() == METHOD_DEFLATED ? VERSION_DEFLATED : VERSION_STORED;
+    }
+
+    private static byte @NotNull [] encodeName(@NotNull String name) throws ZipException {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > 0xFFFF)
+            throw new ZipException("Entry name too long: " + name);
+        return encoded;
+    }
+
+    private static void checkClassicValue(long value, String what) throws ZipException {
+        if (value >= MAX_CLASSIC_VALUE)
+            throw new ZipException("Zip64 would be required for " + what);
+    }
+
+    /**
+     * Content that was compressed ahead of writing.
+     *
+     * @param method The compression method.
+     * @param crc    The CRC-32 of the uncompressed data.
+     * @param size   The size of the uncompressed data.
+     * @param data   The data as stored in the archive.
+     */
+    public record DeflatedContent(int method, long crc, long size, byte[] data) {
+    }
+
+    /**
+     * The information about a written entry needed for its central directory header.
+     */
+    private record CentralRecord(byte[] name, int method, long crc, long compressedSize, long size,
+                                 long localHeaderOffset) {
+    }
+}
@@ -0,0 +1,277 @@
+package com.androidacy.reschiper.bundle;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static com.androidacy.reschiper.bundle.BundleZipReader.FLAG_ENCRYPTED;
+
+/**
+ * Reads the entries of an Android App Bundle (AAB) from a read-only memory mapping of the file.
+ * <p>
+ * Entries are looked up in the central directory index of a {@link BundleZipReader}, so the directory is only
+ * parsed once. Stored entries are read straight from the mapping, deflated entries are inflated from the
+ * mapping with {@link Inflater}s pooled across calls. All read methods can be called concurrently.
+ * <p>
+ * No buffer of the mapping escapes a read, so closing the reader waits for the reads in progress and then
+ * unmaps the file right away. This matters on Windows, where a mapped file can not be deleted or replaced, e.g.
+ * by the next build in the same Gradle daemon. If the JVM does not allow unmapping explicitly, the mapping is
+ * released by the garbage collector instead.
+ * <p>
+ * Archives larger than 2 GiB are not supported, a {@link ZipException} is thrown when mapping one.
+ */
+public class MappedBundleReader implements Closeable {
+    private static final Logger logger = Logger.getLogger(MappedBundleReader.class.getName());
+    private static final byte[] INFLATER_PADDING = new byte[1];
+
+    private final BundleZipReader index;
+    private final MappedByteBuffer mapping;
+    private final ByteBuffer buffer;
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    /**
+     * Maps the archive indexed by a reader.
+     *
+     * @param index The reader holding the central directory index, which must stay open while this reader is used.
+     * @throws IOException If the archive can not be mapped.
+     */
+    public MappedBundleReader(@NotNull BundleZipReader index) throws IOException {
+        this.index = index;
+        this.mapping = index.map();
+        this.buffer = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Finds an entry by its full path.
+     *
+     * @param name The entry path, e.g. base/res/drawable/icon.png.
+     * @return The index of the entry, or -1 if the archive does not contain it.
+     */
+    public int indexOf(@NotNull String name) {
+        return index.indexOf(name);
+    }
+
+    /**
+     * Finds an entry by its directory and its path within that directory, without concatenating them.
+     *
+     * @param directory The directory of the entry, e.g. the module name, or null for a full path.
+     * @param name      The path of the entry within the directory, e.g. res/drawable/icon.png.
+     * @return The index of the entry, or -1 if the archive does not contain it.
+     */
+    public int indexOf(@Nullable String directory, @NotNull String name) {
+        return index.indexOf(directory, name);
+    }
+
+    /**
+     * Gets the uncompressed size of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The size in bytes.
+     */
+    public long getSize(int index) {
+        return this.index.getSize(index);
+    }
+
+    /**
+     * Checks whether an entry is stored without compression, so its content is read from the mapping as-is.
+     *
+     * @param index The index of the entry.
+     * @return true if the entry is stored.
+     */
+    public boolean isStored(int index) {
+        return this.index.getMethod(index) == BundleZipWriter.METHOD_STORED;
+    }
+
+    /**
+     * Reads the content of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The uncompressed content.
+     * @throws IOException If the entry can not be read.
+     */
+    public byte @NotNull [] read(int index) throws IOException {
+        long size = this.index.getSize(index);
+        if (size > Integer.MAX_VALUE - 8)
+            throw new ZipException("Entry too large to be read into memory: " + this.index.getName(index));
+        lock.readLock().lock();
+        try {
+            byte[] content = new byte[(int) size];
+            ByteBuffer data = getContentData(index);
+            if (isStored(index)) {
+                data.get(content);
+                return content;
+            }
+            Inflater inflater = acquireInflater();
+            try {
+                inflater.setInput(data);
+                int length = 0;
+                boolean padded = false;
+                while (!inflater.finished()) {
+                    int inflated = inflater.inflate(content, length, content.length - length);
+                    length += inflated;
+                    if (inflated == 0 && !inflater.finished())
+                        padded = onInflaterStalled(index, inflater, padded);
+                }
+                if (length != content.length)
+                    throw new ZipException("Unexpected size of entry: " + this.index.getName(index));
+                return content;
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data of entry " + this.index.getName(index) + ": " + e.getMessage());
+            } finally {
+                releaseInflater(inflater);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Feeds the content of an entry into a message digest, inflating deflated entries chunk by chunk.
+     *
+     * @param index  The index of the entry.
+     * @param digest The digest to update.
+     * @param chunk  The buffer used for inflated chunks, which can be reused between calls.
+     * @throws IOException If the entry can not be read.
+     */
+    public void digest(int index, @NotNull MessageDigest digest, byte @NotNull [] chunk) throws IOException {
+        lock.readLock().lock();
+        try {
+            ByteBuffer data = getContentData(index);
+            if (isStored(index)) {
+                digest.update(data);
+                return;
+            }
+            Inflater inflater = acquireInflater();
+            try {
+                inflater.setInput(data);
+                boolean padded = false;
+                while (!inflater.finished()) {
+                    int inflated = inflater.inflate(chunk);
+                    digest.update(chunk, 0, inflated);
+                    if (inflated == 0 && !inflater.finished())
+                        padded = onInflaterStalled(index, inflater, padded);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data of entry " + this.index.getName(index) + ": " + e.getMessage());
+            } finally {
+                releaseInflater(inflater);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for the reads in progress, then releases the pooled inflaters and unmaps the file. The index is
+     * closed by its owner.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            Inflater inflater;
+            while ((inflater = inflaters.poll()) != null)
+                inflater.end();
+            unmap(mapping);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the data of an entry, checking that it can be read by this reader. Must be called holding the read lock,
+     * and the returned slice must not be used once the lock is released.
+     *
+     * @param index The index of the entry.
+     * @return A slice of the mapping with the stored data.
+     * @throws IOException If the reader is closed, or the entry is encrypted or uses an unsupported compression method.
+     */
+    private @NotNull ByteBuffer getContentData(int index) throws IOException {
+        if (closed)
+            throw new IOException("Bundle reader closed");
+        if ((this.index.getFlags(index) & FLAG_ENCRYPTED) != 0)
+            throw new ZipException("Encrypted entries are not supported: " + this.index.getName(index));
+        int method = this.index.getMethod(index);
+        if (method != BundleZipWriter.METHOD_STORED && method != BundleZipWriter.METHOD_DEFLATED)
+            throw new ZipException("Unsupported compression method " + method + " of entry: " + this.index.getName(index));
+        long dataOffset = this.index.getDataOffset(index);
+        long compressedSize = this.index.getCompressedSize(index);
+        if (dataOffset + compressedSize > buffer.capacity())
+            throw new ZipException("Invalid data location of entry: " + this.index.getName(index));
+        return buffer.slice((int) dataOffset, (int) compressedSize);
+    }
+
+    /**
+     * Handles an inflater that produced no output. A raw inflater may need one padding byte after the end of
+     * the data to finish, anything else means the data is truncated or not supported.
+     *
+     * @param index    The index of the inflated entry.
+     * @param inflater The inflater.
+     * @param padded   Whether the padding byte was already given.
+     * @return true, as the padding byte is given now.
+     * @throws ZipException If the data can not be inflated further.
+     */
+    private boolean onInflaterStalled(int index, @NotNull Inflater inflater, boolean padded) throws ZipException {
+        if (padded || !inflater.needsInput())
+            throw new ZipException("Unexpected end of compressed data of entry: " + this.index.getName(index));
+        inflater.setInput(INFLATER_PADDING);
+        return true;
+    }
+
+    /**
+     * Takes an inflater from the pool, or creates one if all are in use.
+     *
+     * @return A raw inflater.
+     */
+    private @NotNull Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater(true);
+    }
+
+    /**
+     * Returns an inflater to the pool. Reads hold the read lock, so the reader is not closed meanwhile.
+     *
+     * @param inflater The inflater.
+     */
+    private void releaseInflater(@NotNull Inflater inflater) {
+        inflater.reset();
+        inflaters.offer(inflater);
+    }
+
+    /**
+     * Unmaps a mapping through the cleaner of the JDK, which has no public API for it. The mapping must not be
+     * accessed afterwards.
+     *
+     * @param mapping The mapping.
+     */
+    private static void unmap(@NotNull MappedByteBuffer mapping) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafeField.get(null), mapping);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.fine("- Unable to unmap the bundle, it is released by the garbage collector: " + e);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.androidacy.reschiper.bundle;
+
+import com.android.aapt.Resources;
+import com.android.bundle.Files;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * Collects the edits of several processing stages on one bundle module and applies them in a single pass.
+ * <p>
+ * Every stage adds its own {@link Edit}, which sees the module as left by the edits added before it: entries
+ * removed or moved by an earlier edit are reported by {@link #getEntries()} and {@link #getFileReferences()}
+ * the way they will be written. {@link #build()} then rewrites the module entries and the resource table
+ * once for all edits, instead of once per stage.
+ */
+public class ModuleRewrite {
+    private final BundleModule bundleModule;
+    private final List<Edit> edits = new ArrayList<>();
+
+    /**
+     * Starts a rewrite of a bundle module.
+     *
+     * @param bundleModule The bundle module to rewrite.
+     */
+    public ModuleRewrite(@NotNull BundleModule bundleModule) {
+        this.bundleModule = bundleModule;
+    }
+
+    /**
+     * Gets the bundle module as it was before any edit.
+     *
+     * @return The original bundle module.
+     */
+    public BundleModule getBundleModule() {
+        return bundleModule;
+    }
+
+    /**
+     * Adds an edit applied after all edits added so far.
+     *
+     * @return The new edit.
+     */
+    public Edit addEdit() {
+        Edit edit = new Edit();
+        edits.add(edit);
+        return edit;
+    }
+
+    /**
+     * Gets the module entries with all edits added so far applied.
+     *
+     * @return The remaining module entries, with their current paths.
+     */
+    public @NotNull List<ModuleEntry> getEntries() {
+        List<ModuleEntry> entries = new ArrayList<>();
+        for (ModuleEntry entry : bundleModule.getEntries()) {
+            ZipPath path = entry.getPath();
+            for (Edit edit : edits) {
+                if (edit.removedEntries.contains(path)) {
+                    path = null;
+                    break;
+                }
+                path = edit.movedEntries.getOrDefault(path, path);
+            }
+            if (path == null)
+                continue;
+            // keep the lazy bundle-backed content, only the path changes
+            entries.add(path.equals(entry.getPath()) ? entry : entry.toBuilder().setPath(path).build());
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the files referenced by the resource table with all edits added so far applied.
+     *
+     * @return The referenced file paths, in resource table order.
+     */
+    public @NotNull Set<ZipPath> getFileReferences() {
+        Set<ZipPath> fileReferences = new LinkedHashSet<>();
+        bundleModule.getResourceTable().ifPresent(table -> {
+            for (ZipPath path : ResourcesUtils.getAllFileReferences(table))
+                fileReferences.add(getFileReference(path));
+        });
+        return fileReferences;
+    }
+
+    /**
+     * Gets the path a file reference of the original resource table points to after all edits added so far.
+     *
+     * @param path The file path referenced by the original resource table.
+     * @return The file path referenced after the edits.
+     */
+    public ZipPath getFileReference(ZipPath path) {
+        for (Edit edit : edits)
+            path = edit.fileReferences.getOrDefault(path, path);
+        return path;
+    }
+
+    /**
+     * Applies all edits and builds the rewritten module. The resource table is only rewritten if an edit
+     * changes resources, and then only once.
+     *
+     * @return The rewritten bundle module.
+     */
+    public BundleModule build() {
+        BundleModule.Builder builder = bundleModule.toBuilder();
+        builder.setRawEntries(getEntries());
+        for (Edit edit : edits) {
+            if (edit.nativeConfig != null)
+                builder.setNativeConfig(edit.nativeConfig);
+        }
+        if (bundleModule.getResourceTable().isPresent() && edits.stream().anyMatch(Edit::changesResources))
+            builder.setResourceTable(rewriteResourceTable(bundleModule.getResourceTable().get()));
+        return builder.build();
+    }
+
+    /**
+     * Rewrites the resource table in place, passing every resource through all edits in order. Only the
+     * packages and types of changed resources are copied.
+     *
+     * @param resourceTable The original resource table.
+     * @return The rewritten resource table.
+     */
+    private Resources.ResourceTable rewriteResourceTable(Resources.ResourceTable resourceTable) {
+        return ResourceTableRewriter.rewrite(resourceTable, entry -> {
+            Resources.Entry resEntry = entry.getEntry();
+            for (Edit edit : edits) {
+                for (BiFunction<ResourceTableEntry, Resources.Entry, Resources.Entry> resourceEdit : edit.resourceEdits)
+                    resEntry = resourceEdit.apply(entry, resEntry);
+                if (!edit.fileReferences.isEmpty())
+                    resEntry = replaceFileReferences(resEntry, edit.fileReferences);
+            }
+            return resEntry;
+        });
+    }
+
+    /**
+     * Replaces the referenced file paths of a resource, copying it only if a path changes.
+     *
+     * @param resEntry       The resource.
+     * @param fileReferences The replaced file paths.
+     * @return The resource with its file references replaced.
+     */
+    private static Resources.Entry replaceFileReferences(Resources.Entry resEntry, Map<ZipPath, ZipPath> fileReferences) {
+        Resources.Entry.Builder builder = null;
+        for (int i = 0; i < resEntry.getConfigValueCount(); i++) {
+            Resources.ConfigValue configValue = resEntry.getConfigValue(i);
+            if (!configValue.getValue().getItem().hasFile())
+                continue;
+            ZipPath replacement = fileReferences.get(ZipPath.create(configValue.getValue().getItem().getFile().getPath()));
+            if (replacement == null)
+                continue;
+            if (builder == null)
+                builder = resEntry.toBuilder();
+            builder.getConfigValueBuilder(i).getValueBuilder().getItemBuilder().getFileBuilder().setPath(replacement.toString());
+        }
+        return builder == null ? resEntry : builder.build();
+    }
+
+    /**
+     * The changes of one processing stage to a bundle module.
+     */
+    public static class Edit {
+        private final Set<ZipPath> removedEntries = new HashSet<>();
+        private final Map<ZipPath, ZipPath> movedEntries = new HashMap<>();
+        private final Map<ZipPath, ZipPath> fileReferences = new HashMap<>();
+        private final List<BiFunction<ResourceTableEntry, Resources.Entry, Resources.Entry>> resourceEdits = new ArrayList<>();
+        private Files.NativeLibraries nativeConfig;
+
+        private Edit() {
+        }
+
+        /**
+         * Removes a module entry.
+         *
+         * @param path The current path of the entry.
+         */
+        public void removeEntry(ZipPath path) {
+            removedEntries.add(path);
+        }
+
+        /**
+         * Moves a module entry to another path.
+         *
+         * @param path    The current path of the entry.
+         * @param newPath The new path of the entry.
+         */
+        public void moveEntry(ZipPath path, ZipPath newPath) {
+            movedEntries.put(path, newPath);
+        }
+
+        /**
+         * Replaces a file path referenced by resources.
+         *
+         * @param path    The current referenced path.
+         * @param newPath The path to reference instead.
+         */
+        public void replaceFileReference(ZipPath path, ZipPath newPath) {
+            fileReferences.put(path, newPath);
+        }
+
+        /**
+         * Adds a function rewriting resources, called for every resource of the table before the file
+         * references of this edit are replaced.
+         *
+         * @param resourceEdit The function, receiving the original resource and its current value.
+         */
+        public void editResources(BiFunction<ResourceTableEntry, Resources.Entry, Resources.Entry> resourceEdit) {
+            resourceEdits.add(resourceEdit);
+        }
+
+        /**
+         * Replaces the native libraries configuration of the module.
+         *
+         * @param nativeConfig The new native libraries configuration.
+         */
+        public void setNativeConfig(Files.NativeLibraries nativeConfig) {
+            this.nativeConfig = nativeConfig;
+        }
+
+        private boolean changesResources() {
+            return !resourceEdits.isEmpty() || !fileReferences.isEmpty();
+        }
+    }
+}
@@ -1,27 +1,39 @@
 package com.androidacy.reschiper.bundle;
 
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.Writer;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * The ResourceMapping class represents a mapping of resources, directories, and entry files
  * used for obfuscating resource-related data within Android apps.
  * It provides methods to manage and write these mapping rules to a file.
+ * <p>
+ * Directory and resource mappings are kept as bidirectional maps, so looking up whether an obfuscated
+ * name is already taken does not scan the mapping. Entry file mappings are keyed by module-prefixed paths
+ * while their obfuscated paths are module-relative, so the same obfuscated path may legitimately appear
+ * for several modules and is only required to be unique within one module.
  */
 public class ResourceMapping {
+    public static final String GZIP_EXTENSION = ".gz";
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
 
-    private final Map<String, String> dirMapping = new HashMap<>();
-    private final Map<String, String> resourceMapping = new HashMap<>();
+    private final BiMap<String, String> dirMapping = HashBiMap.create();
+    private final BiMap<String, String> resourceMapping = HashBiMap.create();
     private final Map<String, String> entryFilesMapping = new HashMap<>();
     private final Map<String, String> resourceNameToIdMapping = new HashMap<>();
     private final Map<String, String> resourcePathToIdMapping = new HashMap<>();
@@ -76,8 +88,12 @@ public class ResourceMapping {
      *
      * @param rawPath       The raw directory path.
      * @param obfuscatePath The obfuscated directory path.
+     * @throws IllegalArgumentException if the obfuscatePath is already mapped from another directory.
      */
     public void putDirMapping(String rawPath, String obfuscatePath) {
+        String existingRawPath = dirMapping.inverse().get(obfuscatePath);
+        if (existingRawPath != null && !existingRawPath.equals(rawPath))
+            throw new IllegalArgumentException(String.format("Multiple directories: %s -> %s", rawPath, obfuscatePath));
         dirMapping.put(rawPath, obfuscatePath);
     }
 
@@ -141,41 +157,73 @@ public class ResourceMapping {
     }
 
     /**
-     * Writes the mapping rules to a file at the specified path.
+     * Writes the mapping rules to a file at the specified path. Every section is sorted by raw name, so the
+     * same mapping always produces the same file. A path ending with {@value #GZIP_EXTENSION} is written
+     * gzip-compressed. The binary form of the mapping is written next to it, see {@link BinaryResourceMapping}.
      *
      * @param mappingPath The path to the mapping file.
      * @throws IOException If there is an issue with file I/O.
      */
     public void writeMappingToFile(@NotNull Path mappingPath) throws IOException {
-        try (Writer writer = new BufferedWriter(new FileWriter(mappingPath.toFile(), false))) {
+        CRC32 crc = new CRC32();
+        OutputStream output = new CheckedOutputStream(Files.newOutputStream(mappingPath), crc);
+        if (mappingPath.getFileName().toString().endsWith(GZIP_EXTENSION))
+            output = new GZIPOutputStream(output, WRITE_BUFFER_SIZE);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE)) {
             // Write resource directory mapping
             writer.write("res dir mapping:\n");
-            for (Map.Entry<String, String> entry : dirMapping.entrySet())
-                writer.write(String.format("\t%s -> %s\n", entry.getKey(), entry.getValue()));
+            for (Map.Entry<String, String> entry : sorted(dirMapping)) {
+                writer.write('\t');
+                writer.write(entry.getKey());
+                writer.write(" -> ");
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
             writer.write("\n\n");
-            writer.flush();
             // Write resource ID mapping
             writer.write("res id mapping:\n");
-            for (Map.Entry<String, String> entry : resourceMapping.entrySet())
-                writer.write(String.format(
-                        "\t%s : %s -> %s\n",
-                        resourceNameToIdMapping.get(entry.getKey()),
-                        entry.getKey(),
-                        entry.getValue()
-                ));
-            writer.write("\n\n");
-            writer.flush();
+            writeMappingSection(writer, resourceMapping, resourceNameToIdMapping);
             // Write resource entries path mapping
             writer.write("res entries path mapping:\n");
-            for (Map.Entry<String, String> entry : entryFilesMapping.entrySet())
-                writer.write(String.format(
-                        "\t%s : %s -> %s\n",
-                        resourcePathToIdMapping.get(entry.getKey()),
-                        entry.getKey(),
-                        entry.getValue()
-                ));
-            writer.write("\n\n");
-            writer.flush();
+            writeMappingSection(writer, entryFilesMapping, resourcePathToIdMapping);
         }
+        // records the size and checksum of the file as written, so a later edit of the text mapping is noticed
+        BinaryResourceMapping.write(BinaryResourceMapping.getBinaryMappingPath(mappingPath), Files.size(mappingPath),
+                crc.getValue(), dirMapping, resourceMapping, entryFilesMapping, resourceNameToIdMapping,
+                resourcePathToIdMapping);
+    }
+
+    /**
+     * Writes a section of resource or entry file mappings, with the id of every raw name.
+     *
+     * @param writer  The writer.
+     * @param mapping The raw to obfuscated names.
+     * @param ids     The ids of the raw names.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeMappingSection(@NotNull Writer writer, @NotNull Map<String, String> mapping,
+                                            @NotNull Map<String, String> ids) throws IOException {
+        for (Map.Entry<String, String> entry : sorted(mapping)) {
+            writer.write('\t');
+            writer.write(String.valueOf(ids.get(entry.getKey())));
+            writer.write(" : ");
+            writer.write(entry.getKey());
+            writer.write(" -> ");
+            writer.write(entry.getValue());
+            writer.write('\n');
+        }
+        writer.write("\n\n");
+    }
+
+    /**
+     * Gets the entries of a mapping sorted by key.
+     *
+     * @param mapping The mapping.
+     * @return The sorted entries.
+     */
+    private static @NotNull List<Map.Entry<String, String>> sorted(@NotNull Map<String, String> mapping) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(mapping.entrySet());
+        entries.sort(Map.Entry.comparingByKey());
+        return entries;
     }
 }
\ No newline at end of file
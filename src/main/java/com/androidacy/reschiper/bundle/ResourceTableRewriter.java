@@ -0,0 +1,68 @@
+package com.androidacy.reschiper.bundle;
+
+import com.android.aapt.Resources;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Rewrites the entries of a {@link com.android.aapt.Resources.ResourceTable} in place.
+ * <p>
+ * Rather than rebuilding the table entry by entry, the table is walked once in its original order and only the
+ * packages and types containing a changed entry are copied into builders. Unchanged entries,
+ * types and packages keep their original messages, and the table itself is returned as-is if nothing changed.
+ */
+public class ResourceTableRewriter {
+
+    private ResourceTableRewriter() {
+    }
+
+    /**
+     * Passes every entry of a resource table through a visitor and applies the entries it changes.
+     *
+     * @param resourceTable The resource table.
+     * @param visitor       The visitor, returning the entry it receives when leaving it unchanged.
+     * @return The rewritten resource table.
+     */
+    public static Resources.ResourceTable rewrite(Resources.@NotNull ResourceTable resourceTable, @NotNull EntryVisitor visitor) {
+        Resources.ResourceTable.Builder tableBuilder = null;
+        for (int packageIndex = 0; packageIndex < resourceTable.getPackageCount(); packageIndex++) {
+            Resources.Package resPackage = resourceTable.getPackage(packageIndex);
+            Resources.Package.Builder packageBuilder = null;
+            for (int typeIndex = 0; typeIndex < resPackage.getTypeCount(); typeIndex++) {
+                Resources.Type resType = resPackage.getType(typeIndex);
+                Resources.Type.Builder typeBuilder = null;
+                for (int entryIndex = 0; entryIndex < resType.getEntryCount(); entryIndex++) {
+                    Resources.Entry resEntry = resType.getEntry(entryIndex);
+                    Resources.Entry rewritten = visitor.visit(ResourceTableEntry.create(resPackage, resType, resEntry));
+                    if (rewritten == resEntry)
+                        continue;
+                    if (typeBuilder == null) {
+                        if (packageBuilder == null) {
+                            if (tableBuilder == null)
+                                tableBuilder = resourceTable.toBuilder();
+                            packageBuilder = tableBuilder.getPackageBuilder(packageIndex);
+                        }
+                        typeBuilder = packageBuilder.getTypeBuilder(typeIndex);
+                    }
+                    typeBuilder.setEntry(entryIndex, rewritten);
+                }
+            }
+        }
+        return tableBuilder == null ? resourceTable : tableBuilder.build();
+    }
+
+    /**
+     * A function rewriting the entries of a resource table.
+     */
+    @FunctionalInterface
+    public interface EntryVisitor {
+
+        /**
+         * Visits an entry of the resource table.
+         *
+         * @param entry The entry, with its original package and type.
+         * @return The rewritten entry, or the entry of {@code entry} itself if it is unchanged.
+         */
+        Resources.Entry visit(@NotNull ResourceTableEntry entry);
+    }
+}
@@ -2,12 +2,20 @@ package com.androidacy.reschiper.command;
 
 import com.android.tools.build.bundletool.flags.Flag;
 import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleMetadata;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModuleName;
 import com.android.tools.build.bundletool.model.exceptions.CommandExecutionException;
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
 import com.androidacy.reschiper.android.JarSigner;
 import com.androidacy.reschiper.bundle.AppBundleAnalyzer;
 import com.androidacy.reschiper.bundle.AppBundlePackager;
 import com.androidacy.reschiper.bundle.AppBundleSigner;
+import com.androidacy.reschiper.bundle.BinaryResourceMapping;
+import com.androidacy.reschiper.bundle.BundleFile;
+import com.androidacy.reschiper.bundle.ModuleRewrite;
+import com.androidacy.reschiper.bundle.ResourceMapping;
 import com.androidacy.reschiper.command.extensions.BundleFileFilter;
 import com.androidacy.reschiper.command.extensions.BundleStringFilter;
 import com.androidacy.reschiper.command.extensions.DuplicateResourceMerger;
@@ -19,15 +27,24 @@ import com.androidacy.reschiper.obfuscation.ResourcesObfuscator;
 import com.androidacy.reschiper.operations.FileOperation;
 import com.androidacy.reschiper.parser.Parser;
 import com.androidacy.reschiper.parser.xml.StringFilterConfig;
+import com.androidacy.reschiper.utils.ParallelExecutor;
+import com.androidacy.reschiper.utils.StageExecutor;
 import com.androidacy.reschiper.utils.TimeClock;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
@@ -80,11 +97,27 @@ public abstract class Command {
      */
     static final Flag<Path> MAPPING_FLAG = Flag.path("mapping");
 
+    /**
+     * The name of the duplicate resource fingerprint cache file in the cache directory.
+     */
+    static final String FINGERPRINT_CACHE_FILE_NAME = "resource-fingerprints.bin";
+
     /**
      * A logger for logging messages related to the Command class.
      */
     private static final Logger logger = Logger.getLogger(Command.class.getName());
 
+    /**
+     * The maximum number of pipeline stages running at the same time, see {@link StageExecutor}.
+     */
+    private static final int STAGE_PARALLELISM = 4;
+
+    private static final String STAGE_INPUT_SIZE = "input-size";
+    private static final String STAGE_PACKAGE = "package";
+    private static final String STAGE_MAPPING = "mapping";
+    private static final String STAGE_DUPLICATE_LOG = "duplicate-log";
+    private static final String STAGE_SIGN = "sign";
+
     /**
      * Enumeration of supported command types.
      */
@@ -113,71 +146,113 @@ public abstract class Command {
      * @throws Exception If an error occurs during command execution.
      */
     public Path execute(TYPE commandType) throws Exception {
+        try (BundleFile bundleFile = BundleFile.open(getBundlePath());
+             StageExecutor stages = new StageExecutor(STAGE_PARALLELISM)) {
+            return execute(commandType, bundleFile, stages);
+        }
+    }
+
+    /**
+     * Executes the specified command on an opened Android App Bundle. Stages keeping the bundle open retain it
+     * and release it once packaging has consumed the entry contents. Work that does not depend on the packaged
+     * bundle, such as writing the resource mapping, runs as separate stages concurrently with packaging.
+     *
+     * @param commandType The type of command to execute.
+     * @param bundleFile  The bundle to process, shared by all stages.
+     * @param stages      The executor running the independent stages of the command.
+     * @return The path to the resulting Android App Bundle file after executing the command.
+     * @throws Exception If an error occurs during command execution.
+     */
+    private Path execute(TYPE commandType, BundleFile bundleFile, StageExecutor stages) throws Exception {
         TimeClock timeClock = new TimeClock();
-        AppBundle appBundle = new AppBundleAnalyzer(getBundlePath()).analyze();
+        AtomicLong rawSize = new AtomicLong();
+        stages.submit(STAGE_INPUT_SIZE, () -> rawSize.set(FileOperation.getFileSizes(getBundlePath().toFile())));
+        AppBundle rawAppBundle = new AppBundleAnalyzer(bundleFile).analyze();
+        AppBundle appBundle = rawAppBundle;
         String out = "";
         if (commandType == TYPE.OBFUSCATE_BUNDLE) {
             ObfuscateBundleCommand bundleCommand = getObfuscateBundleBuilder();
+            // in the fused pipeline the stages only decide their edits, which are applied in one pass at the end
+            boolean fused = bundleCommand.getFusedPipeline().orElse(false);
             BundleFileFilter bundleFileFilter = null;
+            BundleStringFilter stringFilter = null;
             DuplicateResourceMerger merger = null;
             ResourcesObfuscator obfuscator = null;
-            // filter file
-            if (bundleCommand.getFilterFile().isPresent() && bundleCommand.getFilterFile().get()) {
-                Set<String> fileFilterRules = new HashSet<>();
-                if (bundleCommand.getFileFilterRules().isPresent())
-                    fileFilterRules = bundleCommand.getFileFilterRules().get();
-                bundleFileFilter = new BundleFileFilter(getBundlePath(), appBundle, fileFilterRules);
-                appBundle = bundleFileFilter.filter();
-            }
+            try {
+                // filter file
+                if (bundleCommand.getFilterFile().isPresent() && bundleCommand.getFilterFile().get()) {
+                    Set<String> fileFilterRules = new HashSet<>();
+                    if (bundleCommand.getFileFilterRules().isPresent())
+                        fileFilterRules = bundleCommand.getFileFilterRules().get();
+                    bundleFileFilter = new BundleFileFilter(bundleFile, appBundle, fileFilterRules);
+                    if (!fused)
+                        appBundle = bundleFileFilter.filter();
+                }
 
-            // remove unused strings need to execute before obfuscate
-            if (bundleCommand.getRemoveStr().isPresent() && bundleCommand.getRemoveStr().get()) {
-                File unusedFile = new File("");
-                if (bundleCommand.getUnusedStrPath().isPresent()) {
-                    File file = new File(bundleCommand.getUnusedStrPath().get());
-                    if (file.exists())
-                        unusedFile = file;
-                    else
-                        System.out.println("unused_strings.txt file is not exists!");
+                // remove unused strings need to execute before obfuscate
+                if (bundleCommand.getRemoveStr().isPresent() && bundleCommand.getRemoveStr().get()) {
+                    File unusedFile = new File("");
+                    if (bundleCommand.getUnusedStrPath().isPresent()) {
+                        File file = new File(bundleCommand.getUnusedStrPath().get());
+                        if (file.exists())
+                            unusedFile = file;
+                        else
+                            System.out.println("unused_strings.txt file is not exists!");
+                    }
+                    Set<String> languageWhiteList = new HashSet<>();
+                    if (bundleCommand.getLanguageWhiteList().isPresent())
+                        languageWhiteList = bundleCommand.getLanguageWhiteList().get();
+                    stringFilter = new BundleStringFilter(getBundlePath(), appBundle, unusedFile.getPath(), languageWhiteList);
+                    if (!fused)
+                        appBundle = stringFilter.filter();
                 }
-                Set<String> languageWhiteList = new HashSet<>();
-                if (bundleCommand.getLanguageWhiteList().isPresent())
-                    languageWhiteList = bundleCommand.getLanguageWhiteList().get();
-                BundleStringFilter filter = new BundleStringFilter(getBundlePath(), appBundle, unusedFile.getPath(), languageWhiteList);
-                appBundle = filter.filter();
-            }
 
-            // merge duplicated resources
-            if (bundleCommand.getMergeDuplicatedResources().isPresent() && bundleCommand.getMergeDuplicatedResources().get()) {
-                merger = new DuplicateResourceMerger(getBundlePath(), appBundle, getOutputPath().getParent());
-                appBundle = merger.merge();
-            }
+                // merge duplicated resources
+                if (bundleCommand.getMergeDuplicatedResources().isPresent() && bundleCommand.getMergeDuplicatedResources().get()) {
+                    merger = new DuplicateResourceMerger(bundleFile, appBundle, getOutputPath().getParent());
+                    if (getCacheDirectory().isPresent())
+                        merger.withFingerprintCache(getCacheDirectory().get().resolve(FINGERPRINT_CACHE_FILE_NAME));
+                    if (!fused)
+                        appBundle = merger.merge();
+                }
 
-            // obfuscate bundle
-            if (bundleCommand.getEnableObfuscate()) {
-                Path mappingPath = null;
-                if (bundleCommand.getMappingPath().isPresent())
-                    mappingPath = bundleCommand.getMappingPath().get();
-                obfuscator = new ResourcesObfuscator(getBundlePath(), appBundle, bundleCommand.getWhiteList(), getOutputPath().getParent(), mappingPath);
-                obfuscator.withMode(obfuscator.getMode(bundleCommand.getObfuscationMode() == null ? "default" : bundleCommand.getObfuscationMode()));
-                appBundle = obfuscator.obfuscate();
-            }
+                // obfuscate bundle
+                if (bundleCommand.getEnableObfuscate()) {
+                    Path mappingPath = null;
+                    if (bundleCommand.getMappingPath().isPresent())
+                        mappingPath = bundleCommand.getMappingPath().get();
+                    obfuscator = new ResourcesObfuscator(getBundlePath(), appBundle, bundleCommand.getWhiteList(), getOutputPath().getParent(), mappingPath);
+                    obfuscator.withMode(obfuscator.getMode(bundleCommand.getObfuscationMode() == null ? "default" : bundleCommand.getObfuscationMode()));
+                    obfuscator.withCompressedMapping(bundleCommand.getCompressMapping().orElse(false));
+                    if (!fused)
+                        appBundle = obfuscator.obfuscate();
+                }
 
-            // package bundle — must happen before closing ZipFile-backed resources
-            new AppBundlePackager(appBundle, getOutputPath()).execute();
-            // close ZipFile-backed resources after packaging has consumed all ByteSources
-            if (bundleFileFilter != null) bundleFileFilter.close();
-            if (merger != null) merger.close();
-            if (obfuscator != null) obfuscator.close();
-            // sign bundle
-            if (bundleCommand.getDisableSign().isEmpty() || !bundleCommand.getDisableSign().get()) {
-                AppBundleSigner signer = new AppBundleSigner(getOutputPath());
-                getStoreFile().ifPresent(storeFile -> {
-                            if (getStorePassword().isPresent() && getKeyAlias().isPresent() && getKeyPassword().isPresent())
-                                signer.setBundleSignature(new JarSigner.Signature(storeFile, getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()));
-                        }
-                );
-                signer.execute();
+                if (fused)
+                    appBundle = runFusedPipeline(appBundle, bundleFileFilter, stringFilter, merger, obfuscator);
+
+                // package bundle — must happen before releasing the bundle file
+                AppBundle processedAppBundle = appBundle;
+                stages.submit(STAGE_PACKAGE, () -> packageBundle(bundleFile, rawAppBundle, processedAppBundle));
+                // the mapping and the duplicate logs are final once the modules are rebuilt, write them while packaging
+                if (obfuscator != null)
+                    stages.submit(STAGE_MAPPING, obfuscator::writeMapping);
+                if (merger != null)
+                    stages.submit(STAGE_DUPLICATE_LOG, merger::writeDuplicatedLogs);
+                // sign bundle
+                if (bundleCommand.getDisableSign().isEmpty() || !bundleCommand.getDisableSign().get()) {
+                    AppBundleSigner signer = new AppBundleSigner(getOutputPath());
+                    getStoreFile().ifPresent(storeFile -> {
+                                if (getStorePassword().isPresent() && getKeyAlias().isPresent() && getKeyPassword().isPresent())
+                                    signer.setBundleSignature(new JarSigner.Signature(storeFile, getStorePassword().get(), getKeyAlias().get(), getKeyPassword().get()));
+                            }
+                    );
+                    stages.submit(STAGE_SIGN, () -> signBundle(signer), STAGE_PACKAGE);
+                }
+                stages.awaitAll();
+            } finally {
+                // release the bundle file once packaging has consumed all ByteSources, or a stage failed
+                release(bundleFileFilter, merger);
             }
 
             out = """
@@ -190,11 +265,14 @@ public abstract class Command {
         } else if (commandType == TYPE.DUPLICATE_RES_MERGE) {
             DuplicateResMergerCommand resMergeCommand = getDuplicateResMergeBuilder();
             // merge duplicated resources file
-            DuplicateResourceMerger merger = new DuplicateResourceMerger(getBundlePath(), appBundle, getOutputPath().getParent());
-            appBundle = merger.merge();
-            // package bundle
-            new AppBundlePackager(appBundle, getOutputPath()).execute();
-            merger.close();
+            try (DuplicateResourceMerger merger = new DuplicateResourceMerger(bundleFile, appBundle, getOutputPath().getParent())) {
+                if (getCacheDirectory().isPresent())
+                    merger.withFingerprintCache(getCacheDirectory().get().resolve(FINGERPRINT_CACHE_FILE_NAME));
+                appBundle = merger.merge();
+                merger.writeDuplicatedLogs();
+                // package bundle
+                packageBundle(bundleFile, rawAppBundle, appBundle);
+            }
             // sign bundle
             if (resMergeCommand.getDisableSign().isEmpty() || !resMergeCommand.getDisableSign().get()) {
                 AppBundleSigner signer = new AppBundleSigner(getOutputPath());
@@ -213,11 +291,11 @@ public abstract class Command {
         } else if (commandType == TYPE.FILTER_FILE && getFileFilterBuilder().isPresent()) {
             FileFilterCommand fileFilterCommand = getFileFilterBuilder().get();
             // filter bundle files
-            BundleFileFilter filter = new BundleFileFilter(getBundlePath(), appBundle, fileFilterCommand.getFileFilterRules());
-            AppBundle filteredAppBundle = filter.filter();
-            // package bundle
-            new AppBundlePackager(filteredAppBundle, getOutputPath()).execute();
-            filter.close();
+            try (BundleFileFilter filter = new BundleFileFilter(bundleFile, appBundle, fileFilterCommand.getFileFilterRules())) {
+                AppBundle filteredAppBundle = filter.filter();
+                // package bundle
+                packageBundle(bundleFile, rawAppBundle, filteredAppBundle);
+            }
             // sign bundle
             if (fileFilterCommand.getDisableSign().isEmpty() || !fileFilterCommand.getDisableSign().get()) {
                 AppBundleSigner signer = new AppBundleSigner(getOutputPath());
@@ -246,7 +324,7 @@ public abstract class Command {
             BundleStringFilter filter = new BundleStringFilter(getBundlePath(), appBundle, config.getPath(), config.getLanguageWhiteList());
             AppBundle filteredAppBundle = filter.filter();
             // package bundle
-            new AppBundlePackager(filteredAppBundle, getOutputPath()).execute();
+            packageBundle(bundleFile, rawAppBundle, filteredAppBundle);
             // sign bundle
             AppBundleSigner signer = new AppBundleSigner(getOutputPath());
             getStoreFile().ifPresent(storeFile -> {
@@ -263,16 +341,124 @@ public abstract class Command {
                     -----------------------------------------%n""";
         }
 
-        long rawSize = FileOperation.getFileSizes(getBundlePath().toFile());
+        stages.awaitAll();
         long filteredSize = FileOperation.getFileSizes(getOutputPath().toFile());
 
         System.out.printf(out, timeClock.getElapsedTime(),
-                FileOperation.getNetFileSizeDescription(rawSize - filteredSize),
-                FileOperation.getNetFileSizeDescription(rawSize),
+                FileOperation.getNetFileSizeDescription(rawSize.get() - filteredSize),
+                FileOperation.getNetFileSizeDescription(rawSize.get()),
                 FileOperation.getNetFileSizeDescription(filteredSize));
         return getOutputPath();
     }
 
+    /**
+     * Runs the enabled stages as one pass: every stage adds its edits to a shared rewrite of each module, in
+     * the order of the separate stages, and each module and its resource table are then rebuilt only once.
+     *
+     * @param rawAppBundle     The bundle to process.
+     * @param bundleFileFilter The file filter, or null if disabled.
+     * @param stringFilter     The string filter, or null if disabled.
+     * @param merger           The duplicate resource merger, or null if disabled.
+     * @param obfuscator       The resource obfuscator, or null if disabled.
+     * @return The processed bundle.
+     * @throws IOException If an I/O error occurs during processing.
+     */
+    private AppBundle runFusedPipeline(@NotNull AppBundle rawAppBundle, @Nullable BundleFileFilter bundleFileFilter,
+                                       @Nullable BundleStringFilter stringFilter, @Nullable DuplicateResourceMerger merger,
+                                       @Nullable ResourcesObfuscator obfuscator) throws IOException {
+        TimeClock timeClock = new TimeClock();
+        List<ModuleRewrite> rewrites = new ArrayList<>();
+        for (BundleModule bundleModule : rawAppBundle.getModules().values())
+            rewrites.add(new ModuleRewrite(bundleModule));
+        BundleMetadata bundleMetadata = rawAppBundle.getBundleMetadata();
+        if (bundleFileFilter != null) {
+            TimeClock stageClock = new TimeClock();
+            bundleFileFilter.printHeader();
+            for (ModuleRewrite rewrite : rewrites)
+                bundleFileFilter.filterBundleModule(rewrite);
+            bundleMetadata = bundleFileFilter.filterMetaData();
+            bundleFileFilter.printSummary(stageClock);
+        }
+        if (stringFilter != null) {
+            stringFilter.loadUnusedStrings();
+            if (stringFilter.isActive()) {
+                for (ModuleRewrite rewrite : rewrites)
+                    stringFilter.filterBundleModule(rewrite);
+            }
+        }
+        if (merger != null) {
+            TimeClock stageClock = new TimeClock();
+            merger.mergeBundleModules(rewrites);
+            merger.printSummary(stageClock);
+        }
+        if (obfuscator != null)
+            obfuscator.obfuscateBundleModules(rewrites);
+        // the edits are decided, rebuild the modules concurrently
+        List<BundleModule> bundleModules = ParallelExecutor.map(rewrites, ModuleRewrite::build);
+        ImmutableMap.Builder<BundleModuleName, BundleModule> modules = ImmutableMap.builder();
+        for (BundleModule bundleModule : bundleModules)
+            modules.put(bundleModule.getName(), bundleModule);
+        AppBundle appBundle = rawAppBundle.toBuilder()
+                .setBundleMetadata(bundleMetadata)
+                .setModules(modules.build())
+                .build();
+        System.out.printf("- Processed %d modules in a single pass in %s%n\n", rewrites.size(), timeClock.getElapsedTime());
+        return appBundle;
+    }
+
+    /**
+     * Releases the references to the bundle file kept by the stages, closing every reference even if one fails.
+     *
+     * @param references The stages keeping the bundle file, null for disabled stages.
+     * @throws IOException If a reference can not be closed.
+     */
+    private static void release(@Nullable Closeable... references) throws IOException {
+        IOException failure = null;
+        for (Closeable reference : references) {
+            if (reference == null)
+                continue;
+            try {
+                reference.close();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Signs the packaged bundle, as a stage of the {@link StageExecutor}.
+     *
+     * @param signer The signer of the output bundle.
+     * @throws IOException If the bundle can not be signed or signing is interrupted.
+     */
+    private static void signBundle(@NotNull AppBundleSigner signer) throws IOException {
+        try {
+            signer.execute();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while signing the bundle");
+        }
+    }
+
+    /**
+     * Packages the processed bundle to the output path, reusing unchanged entries of the input bundle.
+     *
+     * @param bundleFile   The input bundle file.
+     * @param rawAppBundle The bundle as analyzed from the input file.
+     * @param appBundle    The processed bundle to write.
+     * @throws IOException If an I/O error occurs during packaging.
+     */
+    private void packageBundle(BundleFile bundleFile, AppBundle rawAppBundle, AppBundle appBundle) throws IOException {
+        AppBundlePackager packager = new AppBundlePackager(appBundle, getOutputPath());
+        packager.withSourceBundle(bundleFile, rawAppBundle);
+        packager.execute();
+    }
+
     /**
      * Gets the path of the Android App Bundle to be processed.
      *
@@ -315,6 +501,13 @@ public abstract class Command {
      */
     public abstract Optional<String> getKeyPassword();
 
+    /**
+     * Gets the directory for caches kept between runs (optional).
+     *
+     * @return The cache directory, if provided.
+     */
+    public abstract Optional<Path> getCacheDirectory();
+
     /**
      * Gets the builder for string filtering configuration.
      *
@@ -401,6 +594,14 @@ public abstract class Command {
          */
         public abstract Builder setKeyPassword(String keyPassword);
 
+        /**
+         * Sets the directory for caches kept between runs (optional).
+         *
+         * @param cacheDirectory The cache directory.
+         * @return This builder for method chaining.
+         */
+        public abstract Builder setCacheDirectory(Path cacheDirectory);
+
         /**
          * Sets the builder for string filtering configuration.
          *
@@ -469,9 +670,12 @@ public abstract class Command {
                 if (command.getObfuscateBundleBuilder().getMappingPath().isPresent()) {
                     File file = command.getObfuscateBundleBuilder().getMappingPath().get().toFile();
                     checkFileExistsAndReadable(file.toPath());
-                    if (!file.getName().endsWith(".txt"))
+                    String fileName = file.getName();
+                    if (!fileName.endsWith(".txt") && !fileName.endsWith(".txt" + ResourceMapping.GZIP_EXTENSION)
+                            && !fileName.endsWith(BinaryResourceMapping.FILE_EXTENSION))
                         throw CommandExecutionException.builder()
-                                .withInternalMessage("Wrong properties: %s must end with '.txt'.", MAPPING_FLAG)
+                                .withInternalMessage("Wrong properties: %s must end with '.txt', '.txt%s' or '%s'.",
+                                        MAPPING_FLAG, ResourceMapping.GZIP_EXTENSION, BinaryResourceMapping.FILE_EXTENSION)
                                 .build();
                 }
             } else if (commandType == TYPE.FILTER_STRING) {
@@ -5,25 +5,22 @@ import com.android.tools.build.bundletool.model.*;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.androidacy.reschiper.bundle.AppBundleUtils;
+import com.androidacy.reschiper.bundle.BundleFile;
+import com.androidacy.reschiper.bundle.ModuleRewrite;
 import com.androidacy.reschiper.operations.NativeLibrariesOperation;
 import com.androidacy.reschiper.operations.FileOperation;
-import com.androidacy.reschiper.utils.Utils;
+import com.androidacy.reschiper.utils.GlobMatcher;
 import com.androidacy.reschiper.utils.TimeClock;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.rmi.UnexpectedException;
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipFile;
 
 import static com.android.tools.build.bundletool.model.AppBundle.METADATA_DIRECTORY;
-import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 
 /**
  * The `BundleFileFilter` class is responsible for filtering files and metadata within an Android App Bundle (AAB).
@@ -38,29 +35,25 @@ public class BundleFileFilter implements Closeable {
                     "META-INF/*.MF"
             )
     );
-    private final ZipFile bundleZipFile;
+    private final BundleFile bundleFile;
     private final AppBundle rawAppBundle;
-    private final Set<String> filterRules;
-    private final Map<String, Pattern> compiledFilterPatterns = new LinkedHashMap<>();
+    private final GlobMatcher filterMatcher;
     private long filterTotalSize = 0;
     private int filterTotalCount = 0;
 
     /**
      * Constructs a new `BundleFileFilter` instance.
      *
-     * @param bundlePath   The path to the AAB file to filter.
+     * @param bundleFile   The AAB file to filter, retained until this filter is closed.
      * @param rawAppBundle The raw AppBundle to be filtered.
      * @param filterRules  The set of filter rules specifying which files to exclude.
-     * @throws IOException If there is an error accessing the AAB file.
      */
-    public BundleFileFilter(Path bundlePath, AppBundle rawAppBundle, Set<String> filterRules) throws IOException {
-        checkFileExistsAndReadable(bundlePath);
-        this.bundleZipFile = new ZipFile(bundlePath.toFile());
+    public BundleFileFilter(@NotNull BundleFile bundleFile, AppBundle rawAppBundle, Set<String> filterRules) {
+        this.bundleFile = bundleFile.retain();
         this.rawAppBundle = rawAppBundle;
-        this.filterRules = new HashSet<>(filterRules != null ? filterRules : Set.of());
-        this.filterRules.addAll(FILE_SIGN);
-        for (String rule : this.filterRules)
-            this.compiledFilterPatterns.put(rule, Pattern.compile(Utils.convertToPatternString(rule)));
+        Set<String> rules = new TreeSet<>(filterRules != null ? filterRules : Set.of());
+        rules.addAll(FILE_SIGN);
+        this.filterMatcher = new GlobMatcher(rules);
     }
 
     /**
@@ -70,18 +63,38 @@ public class BundleFileFilter implements Closeable {
      * @throws IOException If there is an error during the filtering process.
      */
     public AppBundle filter() throws IOException {
-        System.out.println("----------------------------------------");
-        System.out.println(" Resource File Filter:");
-        System.out.println("----------------------------------------");
+        printHeader();
         TimeClock timeClock = new TimeClock();
         // filter bundle module file
-        Map<BundleModuleName, BundleModule> bundleModules = new HashMap<>();
-        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet())
-            bundleModules.put(entry.getKey(), filterBundleModule(entry.getValue()));
+        Map<BundleModuleName, BundleModule> bundleModules = new LinkedHashMap<>();
+        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
+            ModuleRewrite rewrite = new ModuleRewrite(entry.getValue());
+            filterBundleModule(rewrite);
+            bundleModules.put(entry.getKey(), rewrite.build());
+        }
         AppBundle appBundle = rawAppBundle.toBuilder()
                 .setBundleMetadata(filterMetaData())
                 .setModules(ImmutableMap.copyOf(bundleModules))
                 .build();
+        printSummary(timeClock);
+        return appBundle;
+    }
+
+    /**
+     * Prints the header of the filtering output.
+     */
+    public void printHeader() {
+        System.out.println("----------------------------------------");
+        System.out.println(" Resource File Filter:");
+        System.out.println("----------------------------------------");
+    }
+
+    /**
+     * Prints the number and size of the filtered files.
+     *
+     * @param timeClock The clock started when filtering started.
+     */
+    public void printSummary(@NotNull TimeClock timeClock) {
         System.out.printf(
                 """
                  \n Filtering completed in %s
@@ -91,50 +104,46 @@ public class BundleFileFilter implements Closeable {
                 -----------------------------------------
                 %n""", timeClock.getElapsedTime(), filterTotalCount, FileOperation.getNetFileSizeDescription(filterTotalSize)
         );
-        return appBundle;
     }
 
     /**
-     * Filters the given bundle module by removing files that match filter rules.
+     * Adds the removal of files that match filter rules to the rewrite of a bundle module.
      *
-     * @param bundleModule The bundle module to filter.
-     * @return The filtered bundle module.
+     * @param rewrite The rewrite of the bundle module to filter.
      * @throws IOException If there is an error during the filtering process.
      */
-    private BundleModule filterBundleModule(@NotNull BundleModule bundleModule) throws IOException {
-        BundleModule.Builder builder = bundleModule.toBuilder();
+    public void filterBundleModule(@NotNull ModuleRewrite rewrite) throws IOException {
+        BundleModule bundleModule = rewrite.getBundleModule();
+        List<ModuleEntry> moduleEntries = rewrite.getEntries();
         List<ModuleEntry> filteredModuleEntries = new ArrayList<>();
-        List<ModuleEntry> entries = bundleModule.getEntries().stream()
-                .filter(entry -> {
-                    String filterRule = getMatchedFilterRule(entry.getPath());
-                    if (filterRule != null) {
-                        checkFilteredEntry(entry, filterRule);
-                        System.out.printf(" - %s%n", entry.getPath());
-                        filteredModuleEntries.add(entry);
-                        filterTotalSize += AppBundleUtils.getZipEntrySize(bundleZipFile, entry, bundleModule);
-                        return false;
-                    }
-                    return true;
-                })
-                .collect(Collectors.toList());
-        builder.setRawEntries(entries);
+        ModuleRewrite.Edit edit = rewrite.addEdit();
+        for (ModuleEntry entry : moduleEntries) {
+            String filterRule = getMatchedFilterRule(entry.getPath());
+            if (filterRule != null) {
+                checkFilteredEntry(entry, filterRule);
+                System.out.printf(" - %s%n", entry.getPath());
+                filteredModuleEntries.add(entry);
+                filterTotalSize += AppBundleUtils.getZipEntrySize(bundleFile, entry, bundleModule);
+                edit.removeEntry(entry.getPath());
+            }
+        }
         filterTotalCount += filteredModuleEntries.size();
         // update pb
-        Files.NativeLibraries nativeLibraries = updateLibDirectory(bundleModule, filteredModuleEntries);
+        Files.NativeLibraries nativeLibraries = updateLibDirectory(bundleModule, moduleEntries, filteredModuleEntries);
         if (nativeLibraries != null)
-            builder.setNativeConfig(nativeLibraries);
-        return builder.build();
+            edit.setNativeConfig(nativeLibraries);
     }
 
     /**
      * Updates the native libraries directory in the bundle module.
      *
-     * @param bundleModule The bundle module to update.
-     * @param entries      The list of filtered module entries.
+     * @param bundleModule  The bundle module to update.
+     * @param moduleEntries The module entries before filtering.
+     * @param entries       The list of filtered module entries.
      * @return The updated native libraries configuration.
      * @throws UnexpectedException If there is an unexpected error.
      */
-    private Files.NativeLibraries updateLibDirectory(@NotNull BundleModule bundleModule, @NotNull List<ModuleEntry> entries) throws UnexpectedException {
+    private Files.NativeLibraries updateLibDirectory(@NotNull BundleModule bundleModule, @NotNull List<ModuleEntry> moduleEntries, @NotNull List<ModuleEntry> entries) throws UnexpectedException {
         List<ModuleEntry> libEntries = entries.stream()
                 .filter(entry -> entry.getPath().startsWith(BundleModule.LIB_DIRECTORY))
                 .toList();
@@ -149,7 +158,7 @@ public class BundleFileFilter implements Closeable {
                     .filter(entry -> entry.getPath().startsWith(directory.getPath()))
                     .toList().size();
             if (directoryNativeSize > 0) {
-                int moduleNativeSize = bundleModule.getEntries().stream()
+                int moduleNativeSize = moduleEntries.stream()
                         .filter(entry -> entry.getPath().startsWith(directory.getPath()))
                         .toList().size();
                 if (directoryNativeSize == moduleNativeSize)
@@ -164,7 +173,7 @@ public class BundleFileFilter implements Closeable {
      *
      * @return The filtered metadata.
      */
-    private BundleMetadata filterMetaData() {
+    public BundleMetadata filterMetaData() {
         BundleMetadata.Builder builder = BundleMetadata.builder();
         Stream.of(rawAppBundle.getBundleMetadata())
                 .map(BundleMetadata::getFileContentMap)
@@ -175,7 +184,7 @@ public class BundleFileFilter implements Closeable {
                     if (getMatchedFilterRule(entryZipPath) != null) {
                         System.out.printf(" - %s%n", entryZipPath);
                         filterTotalCount += 1;
-                        filterTotalSize += AppBundleUtils.getZipEntrySize(bundleZipFile, entryZipPath);
+                        filterTotalSize += AppBundleUtils.getZipEntrySize(bundleFile, entryZipPath);
                         return false;
                     }
                     return true;
@@ -201,15 +210,12 @@ public class BundleFileFilter implements Closeable {
      * @return The matched filter rule, or null if no rule matches.
      */
     private @Nullable String getMatchedFilterRule(ZipPath zipPath) {
-        for (Map.Entry<String, Pattern> entry : compiledFilterPatterns.entrySet()) {
-            if (entry.getValue().matcher(zipPath.toString()).matches())
-                return entry.getKey();
-        }
-        return null;
+        int rule = filterMatcher.match(zipPath.toString());
+        return rule == GlobMatcher.NO_MATCH ? null : filterMatcher.getRule(rule);
     }
 
     @Override
     public void close() throws IOException {
-        bundleZipFile.close();
+        bundleFile.close();
     }
 }
\ No newline at end of file
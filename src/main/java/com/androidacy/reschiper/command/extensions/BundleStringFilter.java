@@ -4,11 +4,11 @@ import com.android.aapt.Resources;
 import com.android.tools.build.bundletool.model.AppBundle;
 import com.android.tools.build.bundletool.model.BundleModule;
 import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ResourceTableEntry;
 import com.google.common.collect.ImmutableMap;
-import com.androidacy.reschiper.bundle.ResourceTableBuilder;
+import com.androidacy.reschiper.bundle.ModuleRewrite;
 import com.androidacy.reschiper.utils.TimeClock;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -57,23 +57,15 @@ public class BundleStringFilter {
      */
     public AppBundle filter() throws IOException {
         TimeClock timeClock = new TimeClock();
-        File unusedStrFile = new File(unusedStrPath);
-        Map<BundleModuleName, BundleModule> obfuscatedModules = new HashMap<>();
-        if (unusedStrFile.exists()) {
-            //shrink-results
-            unUsedNameSet.addAll(Files.readAllLines(Paths.get(unusedStrPath)));
-            System.out.println("unused string : " + unUsedNameSet.size());
-        }
-        if (!unUsedNameSet.isEmpty() || !languageWhiteList.isEmpty())
-            for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
-                BundleModule bundleModule = entry.getValue();
-                BundleModuleName bundleModuleName = entry.getKey();
-                // obfuscate bundle module
-                BundleModule obfuscatedModule = obfuscateBundleModule(bundleModule);
-                obfuscatedModules.put(bundleModuleName, obfuscatedModule);
-            }
-        else
+        Map<BundleModuleName, BundleModule> obfuscatedModules = new LinkedHashMap<>();
+        loadUnusedStrings();
+        if (!isActive())
             return rawAppBundle;
+        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
+            ModuleRewrite rewrite = new ModuleRewrite(entry.getValue());
+            filterBundleModule(rewrite);
+            obfuscatedModules.put(entry.getKey(), rewrite.build());
+        }
         AppBundle appBundle = rawAppBundle.toBuilder()
                 .setModules(ImmutableMap.copyOf(obfuscatedModules))
                 .build();
@@ -82,85 +74,55 @@ public class BundleStringFilter {
     }
 
     /**
-     * Obfuscates the resource table of a bundle module based on the specified criteria.
+     * Reads the unused string names, if the file exists.
      *
-     * @param bundleModule The bundle module to obfuscate.
-     * @return The obfuscated bundle module.
+     * @throws IOException If the file can not be read.
      */
-    private BundleModule obfuscateBundleModule(@NotNull BundleModule bundleModule) {
-        BundleModule.Builder builder = bundleModule.toBuilder();
-        // obfuscate resourceTable
-        Resources.ResourceTable obfuscatedResTable = obfuscateResourceTable(bundleModule);
-        if (obfuscatedResTable != null)
-            builder.setResourceTable(obfuscatedResTable);
-        return builder.build();
+    public void loadUnusedStrings() throws IOException {
+        File unusedStrFile = new File(unusedStrPath);
+        if (unusedStrFile.exists()) {
+            //shrink-results
+            unUsedNameSet.addAll(Files.readAllLines(Paths.get(unusedStrPath)));
+            System.out.println("unused string : " + unUsedNameSet.size());
+        }
     }
 
     /**
-     * Obfuscates the resource table of a bundle module by removing unused strings and languages.
+     * Checks whether there are strings or languages to remove, after {@link #loadUnusedStrings()}.
      *
-     * @param bundleModule The bundle module containing the resource table to obfuscate.
-     * @return The obfuscated resource table, or null if it's empty.
+     * @return true if filtering changes the bundle.
      */
-    private Resources.@Nullable ResourceTable obfuscateResourceTable(@NotNull BundleModule bundleModule) {
-        if (bundleModule.getResourceTable().isEmpty()) {
-            return null;
-        }
-        Resources.ResourceTable rawTable = bundleModule.getResourceTable().get();
-        ResourceTableBuilder tableBuilder = new ResourceTableBuilder();
-        List<Resources.Package> packageList = rawTable.getPackageList();
-        if (packageList.isEmpty())
-            return tableBuilder.build();
-        for (Resources.Package resPackage : packageList) {
-            if (resPackage == null)
-                continue;
-            ResourceTableBuilder.PackageBuilder packageBuilder = tableBuilder.addPackage(resPackage);
-            List<Resources.Type> typeList = resPackage.getTypeList();
+    public boolean isActive() {
+        return !unUsedNameSet.isEmpty() || !languageWhiteList.isEmpty();
+    }
+
+    /**
+     * Adds the removal of unused strings and languages from the resource table of a bundle module to its rewrite.
+     *
+     * @param rewrite The rewrite of the bundle module.
+     */
+    public void filterBundleModule(@NotNull ModuleRewrite rewrite) {
+        BundleModule bundleModule = rewrite.getBundleModule();
+        if (bundleModule.getResourceTable().isEmpty())
+            return;
+        for (Resources.Package resPackage : bundleModule.getResourceTable().get().getPackageList()) {
             Set<String> languageFilterSet = new HashSet<>(100);
             List<String> nameFilterList = new ArrayList<>(3000);
-            for (Resources.Type resType : typeList) {
-                if (resType == null)
-                    continue;
-                List<Resources.Entry> entryList = resType.getEntryList();
-                for (Resources.Entry resEntry : entryList) {
-                    if (resEntry == null)
+            if (isStringFilterPackage(resPackage)) {
+                for (Resources.Type resType : resPackage.getTypeList()) {
+                    if (!resType.getName().equals("string"))
                         continue;
-                    if (resPackage.getPackageId().getId() == 127 && resType.getName().equals("string") &&
-                            languageWhiteList != null && !languageWhiteList.isEmpty()) {
-                        //delete language
-                        List<Resources.ConfigValue> languageValue = resEntry.getConfigValueList().stream()
-                                .filter(Objects::nonNull)
-                                .filter(configValue -> {
-                                    String locale = configValue.getConfig().getLocale();
-                                    if (keepLanguage(locale))
-                                        return true;
+                    for (Resources.Entry resEntry : resType.getEntryList()) {
+                        if (languageWhiteList != null && !languageWhiteList.isEmpty()) {
+                            for (Resources.ConfigValue configValue : resEntry.getConfigValueList()) {
+                                String locale = configValue.getConfig().getLocale();
+                                if (!keepLanguage(locale))
                                     languageFilterSet.add(locale);
-                                    return false;
-                                }).collect(Collectors.toList());
-                        resEntry = resEntry.toBuilder().clearConfigValue().addAllConfigValue(languageValue).build();
-                    }
-                    // delete unused strings identified by the shrink process
-                    if (resPackage.getPackageId().getId() == 127 && resType.getName().equals("string")
-                            && !unUsedNameSet.isEmpty() && unUsedNameSet.contains(resEntry.getName())) {
-                        List<Resources.ConfigValue> proguardConfigValue = resEntry.getConfigValueList().stream()
-                                .filter(Objects::nonNull)
-                                .map(configValue -> {
-                                    Resources.ConfigValue.Builder rcb = configValue.toBuilder();
-                                    Resources.Value.Builder rvb = rcb.getValueBuilder();
-                                    Resources.Item.Builder rib = rvb.getItemBuilder();
-                                    Resources.String.Builder rfb = rib.getStrBuilder();
-                                    return rcb.setValue(
-                                            rvb.setItem(
-                                                    rib.setStr(
-                                                            rfb.setValue(replaceValue).build()
-                                                    ).build()
-                                            ).build()
-                                    ).build();
-                                }).collect(Collectors.toList());
-                        nameFilterList.add(resEntry.getName());
-                        resEntry = resEntry.toBuilder().clearConfigValue().addAllConfigValue(proguardConfigValue).build();
+                            }
+                        }
+                        if (unUsedNameSet.contains(resEntry.getName()))
+                            nameFilterList.add(resEntry.getName());
                     }
-                    packageBuilder.addResource(resType, resEntry);
                 }
             }
             System.out.println("filtering " + resPackage.getPackageName() + " id:" + resPackage.getPackageId().getId());
@@ -173,9 +135,46 @@ public class BundleStringFilter {
                 l.append("[delete name] ").append(name).append("\n");
             System.out.println(l);
             System.out.println("-----------");
-            packageBuilder.build();
         }
-        return tableBuilder.build();
+        rewrite.addEdit().editResources(this::filterResource);
+    }
+
+    /**
+     * Removes the unused languages of a string resource and replaces the value of an unused string.
+     *
+     * @param source   The resource in the original resource table.
+     * @param resEntry The current value of the resource.
+     * @return The filtered resource.
+     */
+    private Resources.Entry filterResource(@NotNull ResourceTableEntry source, Resources.@NotNull Entry resEntry) {
+        if (!isStringFilterPackage(source.getPackage()) || !source.getType().getName().equals("string"))
+            return resEntry;
+        if (languageWhiteList != null && !languageWhiteList.isEmpty()) {
+            //delete language
+            List<Resources.ConfigValue> languageValue = resEntry.getConfigValueList().stream()
+                    .filter(configValue -> keepLanguage(configValue.getConfig().getLocale()))
+                    .collect(Collectors.toList());
+            if (languageValue.size() != resEntry.getConfigValueCount())
+                resEntry = resEntry.toBuilder().clearConfigValue().addAllConfigValue(languageValue).build();
+        }
+        // delete unused strings identified by the shrink process
+        if (!unUsedNameSet.isEmpty() && unUsedNameSet.contains(resEntry.getName())) {
+            Resources.Entry.Builder builder = resEntry.toBuilder();
+            for (Resources.ConfigValue.Builder configValue : builder.getConfigValueBuilderList())
+                configValue.getValueBuilder().getItemBuilder().getStrBuilder().setValue(replaceValue);
+            resEntry = builder.build();
+        }
+        return resEntry;
+    }
+
+    /**
+     * Checks whether strings of a package are filtered. Only the app package (id 0x7f) is.
+     *
+     * @param resPackage The resource package.
+     * @return true if the strings of the package are filtered.
+     */
+    private static boolean isStringFilterPackage(Resources.@NotNull Package resPackage) {
+        return resPackage.getPackageId().getId() == 127;
     }
 
     /**
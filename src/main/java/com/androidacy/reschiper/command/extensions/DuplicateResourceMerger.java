@@ -2,11 +2,11 @@ package com.androidacy.reschiper.command.extensions;
 
 import com.android.aapt.Resources;
 import com.android.tools.build.bundletool.model.*;
-import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
 import com.androidacy.reschiper.bundle.AppBundleUtils;
-import com.androidacy.reschiper.bundle.ResourceTableBuilder;
-import com.androidacy.reschiper.operations.ResourceTableOperation;
+import com.androidacy.reschiper.bundle.BundleFile;
+import com.androidacy.reschiper.bundle.ModuleRewrite;
 import com.androidacy.reschiper.operations.FileOperation;
+import com.androidacy.reschiper.utils.ParallelExecutor;
 import com.androidacy.reschiper.utils.TimeClock;
 import org.jetbrains.annotations.NotNull;
 
@@ -16,65 +16,147 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.ZipFile;
+import java.util.zip.ZipEntry;
 import java.io.Closeable;
 
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileDoesNotExist;
-import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 /**
  * The `DuplicateResourceMerger` class is responsible for merging and removing duplicated resources
  * in an Android App Bundle (AAB). It identifies duplicated resources by their MD5 hash values and
- * merges them to reduce the size of the bundle.
+ * merges them to reduce the size of the bundle. Only entries whose size and CRC-32, as recorded in the
+ * central directory of the bundle, match another entry are hashed, and the entries of all modules are
+ * hashed concurrently, each streaming its content.
  * <p>
  * This class processes each module in the App Bundle, identifies duplicated resources, and generates
- * a log file with information about the merged resources and their original paths.
+ * a log file with information about the merged resources and their original paths. The logs are only
+ * written by {@link #writeDuplicatedLogs()}, so they can be written while the bundle is packaged.
  */
 public class DuplicateResourceMerger implements Closeable {
     private static final Logger logger = Logger.getLogger(DuplicateResourceMerger.class.getName());
     public static final String DUPLICATE_LOGGER_FILE_SUFFIX = "-duplicate.txt";
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
     private final Path outputLogLocationDir;
-    private final ZipFile bundleZipFile;
+    private final BundleFile bundleFile;
     private final AppBundle rawAppBundle;
     private final Map<String, ZipPath> md5FileList = new HashMap<>();
-    private final Map<ZipPath, String> duplicatedFileList = new HashMap<>();
+    private final Map<ZipPath, String> duplicatedFileList = new TreeMap<>();
+    private final Map<File, String> pendingLogs = new LinkedHashMap<>();
+    private ResourceFingerprintCache fingerprintCache;
     private long mergeDuplicatedTotalSize = 0;
     private int mergeDuplicatedTotalCount = 0;
 
     /**
      * Constructs a `DuplicateResourceMerger` instance with the provided parameters.
      *
-     * @param bundlePath           The path to the input AAB file.
+     * @param bundleFile           The input AAB file, retained until this merger is closed.
      * @param appBundle            The original unfiltered App Bundle.
      * @param outputLogLocationDir The directory where log files containing information about duplicated resources will be stored.
-     * @throws IOException If there is an issue with reading files or bundle contents.
      */
-    public DuplicateResourceMerger(Path bundlePath, AppBundle appBundle, Path outputLogLocationDir) throws IOException {
-        checkFileExistsAndReadable(bundlePath);
+    public DuplicateResourceMerger(@NotNull BundleFile bundleFile, AppBundle appBundle, Path outputLogLocationDir) {
         this.outputLogLocationDir = outputLogLocationDir;
-        bundleZipFile = new ZipFile(bundlePath.toFile());
+        this.bundleFile = bundleFile.retain();
         rawAppBundle = appBundle;
     }
 
+    /**
+     * Enables the persistent fingerprint cache, so entries unchanged since the previous run are not hashed again.
+     *
+     * @param cacheFile The cache file, created if it does not exist.
+     */
+    public void withFingerprintCache(Path cacheFile) {
+        this.fingerprintCache = new ResourceFingerprintCache(cacheFile);
+    }
+
     /**
      * Merges duplicated resources in all modules of the App Bundle, removing duplicates based on their MD5 hash values.
-     * Generates log files containing information about the merged resources and their original paths.
+     * The log files containing information about the merged resources and their original paths are kept until
+     * {@link #writeDuplicatedLogs()} is called.
      *
      * @return An AppBundle with duplicated resources removed.
      * @throws IOException If there is an issue with reading files or bundle contents.
      */
     public AppBundle merge() throws IOException {
         TimeClock timeClock = new TimeClock();
+        List<ModuleRewrite> rewrites = new ArrayList<>();
+        for (BundleModule bundleModule : rawAppBundle.getModules().values())
+            rewrites.add(new ModuleRewrite(bundleModule));
+        mergeBundleModules(rewrites);
         List<BundleModule> mergedBundleModuleList = new ArrayList<>();
-        for (Map.Entry<BundleModuleName, BundleModule> moduleEntry : rawAppBundle.getModules().entrySet())
-            mergedBundleModuleList.add(mergeBundleModule(moduleEntry.getValue()));
+        for (ModuleRewrite rewrite : rewrites)
+            mergedBundleModuleList.add(rewrite.build());
         AppBundle mergedAppBundle = AppBundle.buildFromModules(
                 mergedBundleModuleList.stream().collect(toImmutableList()),
                 rawAppBundle.getBundleConfig(),
                 rawAppBundle.getBundleMetadata()
         );
+        printSummary(timeClock);
+        return mergedAppBundle;
+    }
+
+    /**
+     * Adds the removal of duplicated resources to the rewrites of all modules. The candidates of all modules are
+     * fingerprinted concurrently, then each module is resolved in order. The duplicate logs are kept until
+     * {@link #writeDuplicatedLogs()} is called.
+     *
+     * @param rewrites The rewrites of the bundle modules.
+     * @throws IOException If there is an issue with reading files or bundle contents.
+     */
+    public void mergeBundleModules(@NotNull List<ModuleRewrite> rewrites) throws IOException {
+        List<ZipEntry> hashCandidates = new ArrayList<>();
+        for (ModuleRewrite rewrite : rewrites)
+            collectHashCandidates(rewrite, hashCandidates);
+        Map<String, String> entryMd5s = new HashMap<>();
+        List<ZipEntry> uncachedEntries = new ArrayList<>();
+        for (ZipEntry zipEntry : hashCandidates) {
+            String md5 = fingerprintCache == null ? null : fingerprintCache.get(zipEntry);
+            if (md5 != null)
+                entryMd5s.put(zipEntry.getName(), md5);
+            else
+                uncachedEntries.add(zipEntry);
+        }
+        ThreadLocal<byte[]> digestBuffers = ThreadLocal.withInitial(() -> new byte[DIGEST_BUFFER_SIZE]);
+        List<String> md5List = ParallelExecutor.map(uncachedEntries,
+                zipEntry -> AppBundleUtils.getEntryMd5(bundleFile, zipEntry, digestBuffers.get()));
+        for (int i = 0; i < uncachedEntries.size(); i++) {
+            entryMd5s.put(uncachedEntries.get(i).getName(), md5List.get(i));
+            if (fingerprintCache != null)
+                fingerprintCache.put(uncachedEntries.get(i), md5List.get(i));
+        }
+        if (fingerprintCache != null) {
+            System.out.printf("- Reused %d of %d resource hashes from the fingerprint cache%n", fingerprintCache.getHitCount(), hashCandidates.size());
+            try {
+                fingerprintCache.save();
+            } catch (IOException e) {
+                logger.warning("- Unable to save the fingerprint cache: " + e.getMessage());
+            }
+        }
+        for (ModuleRewrite rewrite : rewrites)
+            mergeBundleModule(rewrite, entryMd5s);
+    }
+
+    /**
+     * Writes the log files of the modules merged since the last call.
+     *
+     * @throws IOException If there is an issue with writing a log file.
+     */
+    public void writeDuplicatedLogs() throws IOException {
+        for (Map.Entry<File, String> log : pendingLogs.entrySet()) {
+            checkFileDoesNotExist(log.getKey().toPath());
+            try (Writer writer = new BufferedWriter(new FileWriter(log.getKey(), false))) {
+                writer.write(log.getValue());
+            }
+        }
+        pendingLogs.clear();
+    }
+
+    /**
+     * Prints the number and size of the removed duplicates.
+     *
+     * @param timeClock The clock started when merging started.
+     */
+    public void printSummary(@NotNull TimeClock timeClock) {
         System.out.printf(
                 """
                         removed duplicate resources done, took %s
@@ -85,18 +167,48 @@ public class DuplicateResourceMerger implements Closeable {
                 timeClock.getElapsedTime(), mergeDuplicatedTotalCount,
                 FileOperation.getNetFileSizeDescription(mergeDuplicatedTotalSize)
         );
-        return mergedAppBundle;
     }
 
     /**
-     * Merges duplicated resources within a single module of the App Bundle, removing duplicates based on their MD5 hash values.
-     * Generates a log file containing information about the merged resources and their original paths for the module.
+     * Collects the resource entries of a module that need to be hashed. Only entries whose size and CRC-32,
+     * as recorded in the central directory, match another entry of the module can be duplicates.
      *
-     * @param bundleModule The bundle module to process.
-     * @return A modified bundle module with duplicated resources removed.
+     * @param rewrite        The rewrite of the bundle module to process.
+     * @param hashCandidates The list to add the entries to hash to.
+     * @throws IOException If an entry is missing from the bundle.
+     */
+    private void collectHashCandidates(@NotNull ModuleRewrite rewrite, List<ZipEntry> hashCandidates) throws IOException {
+        BundleModule bundleModule = rewrite.getBundleModule();
+        Resources.ResourceTable table = bundleModule.getResourceTable().orElse(Resources.ResourceTable.getDefaultInstance());
+        if (table.getPackageList().isEmpty() || bundleModule.getEntries().isEmpty())
+            return;
+        List<ZipEntry> zipEntries = new ArrayList<>();
+        Map<ContentKey, Integer> contentKeyCounts = new HashMap<>();
+        for (ModuleEntry entry : rewrite.getEntries()) {
+            if (!entry.getPath().startsWith(BundleModule.RESOURCES_DIRECTORY))
+                continue;
+            ZipEntry zipEntry = AppBundleUtils.getZipEntry(bundleFile, entry, bundleModule);
+            zipEntries.add(zipEntry);
+            contentKeyCounts.merge(new ContentKey(zipEntry.getSize(), zipEntry.getCrc()), 1, Integer::sum);
+        }
+        for (ZipEntry zipEntry : zipEntries) {
+            if (contentKeyCounts.get(new ContentKey(zipEntry.getSize(), zipEntry.getCrc())) > 1)
+                hashCandidates.add(zipEntry);
+        }
+    }
+
+    /**
+     * Adds the removal of duplicated resources within a single module to its rewrite, based on their MD5 hash values.
+     * Of all entries with the same hash, the one with the smallest path is kept, so the result does not depend on
+     * the order of the entries in the bundle, and references to the others are redirected to it.
+     * Prepares a log file containing information about the merged resources and their original paths for the module.
+     *
+     * @param rewrite   The rewrite of the bundle module to process.
+     * @param entryMd5s The MD5 hash of every hashed entry, by its path in the bundle.
      * @throws IOException If there is an issue with reading files or bundle contents.
      */
-    private BundleModule mergeBundleModule(@NotNull BundleModule bundleModule) throws IOException {
+    private void mergeBundleModule(@NotNull ModuleRewrite rewrite, Map<String, String> entryMd5s) throws IOException {
+        BundleModule bundleModule = rewrite.getBundleModule();
         File logFile = new File(outputLogLocationDir.toFile(), bundleModule.getName().getName() + DUPLICATE_LOGGER_FILE_SUFFIX);
         if (Files.exists(logFile.toPath())) {
             System.out.println("Log File Cleanup:");
@@ -105,114 +217,83 @@ public class DuplicateResourceMerger implements Closeable {
         }
         Resources.ResourceTable table = bundleModule.getResourceTable().orElse(Resources.ResourceTable.getDefaultInstance());
         if (table.getPackageList().isEmpty() || bundleModule.getEntries().isEmpty())
-            return bundleModule;
+            return;
         md5FileList.clear();
         duplicatedFileList.clear();
-        List<ModuleEntry> mergedModuleEntry = new ArrayList<>();
-        for (ModuleEntry entry : bundleModule.getEntries()) {
-            if (!entry.getPath().startsWith(BundleModule.RESOURCES_DIRECTORY)) {
-                mergedModuleEntry.add(entry);
-                continue;
-            }
-            String md5 = AppBundleUtils.getEntryMd5(bundleZipFile, entry, bundleModule);
+        String moduleDir = bundleModule.getName().getName() + "/";
+        List<ZipPath> hashedPaths = rewrite.getEntries().stream()
+                .map(ModuleEntry::getPath)
+                .filter(path -> entryMd5s.containsKey(moduleDir + path))
+                .sorted()
+                .collect(Collectors.toList());
+        for (ZipPath path : hashedPaths) {
+            String md5 = entryMd5s.get(moduleDir + path);
             if (md5FileList.containsKey(md5))
-                duplicatedFileList.put(entry.getPath(), md5);
-            else {
-                md5FileList.put(md5, entry.getPath());
-                mergedModuleEntry.add(entry);
-            }
+                duplicatedFileList.put(path, md5);
+            else
+                md5FileList.put(md5, path);
+        }
+        collectDuplicatedLog(logFile, bundleModule);
+        ModuleRewrite.Edit edit = rewrite.addEdit();
+        for (Map.Entry<ZipPath, String> entry : duplicatedFileList.entrySet()) {
+            edit.removeEntry(entry.getKey());
+            edit.replaceFileReference(entry.getKey(), md5FileList.get(entry.getValue()));
         }
-        generateDuplicatedLog(logFile, bundleModule);
-        Resources.ResourceTable mergedTable = mergeResourceTable(table);
-        return bundleModule.toBuilder()
-                .setResourceTable(mergedTable)
-                .setRawEntries(mergedModuleEntry)
-                .build();
-    }
-
-    /**
-     * Merges the resource table of a module, removing duplicated resources based on their MD5 hash values.
-     *
-     * @param resourceTable The original resource table to be modified.
-     * @return A modified resource table with duplicated resources removed.
-     */
-    private Resources.ResourceTable mergeResourceTable(Resources.ResourceTable resourceTable) {
-        ResourceTableBuilder resourceTableBuilder = new ResourceTableBuilder();
-        ResourcesUtils.entries(resourceTable).forEach(entry -> {
-            ResourceTableBuilder.PackageBuilder packageBuilder = resourceTableBuilder.addPackage(entry.getPackage());
-            // replace the duplicated path
-            List<Resources.ConfigValue> configValues = getDuplicatedMergedConfigValues(entry.getEntry());
-            Resources.Entry mergedEntry = ResourceTableOperation.updateEntryConfigValueList(entry.getEntry(), configValues);
-            packageBuilder.addResource(entry.getType(), mergedEntry);
-        });
-        return resourceTableBuilder.build();
-    }
-
-    /**
-     * Modifies the configuration values of duplicated resources within an entry, updating file paths if necessary.
-     *
-     * @param entry The entry containing configuration values to be modified.
-     * @return A list of modified configuration values with updated file paths for duplicated resources.
-     */
-    private List<Resources.ConfigValue> getDuplicatedMergedConfigValues(Resources.@NotNull Entry entry) {
-        return Stream.of(entry.getConfigValueList())
-                .flatMap(Collection::stream)
-                .map(configValue -> {
-                    if (!configValue.getValue().getItem().hasFile())
-                        return configValue;
-                    ZipPath zipPath = ZipPath.create(configValue.getValue().getItem().getFile().getPath());
-                    if (duplicatedFileList.containsKey(zipPath))
-                        zipPath = md5FileList.get(duplicatedFileList.get(zipPath));
-                    return ResourceTableOperation.replaceEntryPath(configValue, zipPath.toString());
-                }).collect(Collectors.toList());
     }
 
     /**
-     * Generates a log file containing information about duplicated resources and their original paths.
+     * Prepares the content of a log file containing information about duplicated resources and their original
+     * paths, to be written by {@link #writeDuplicatedLogs()}.
      *
      * @param logFile      The file where the log information will be written.
      * @param bundleModule The bundle module containing the duplicated resources.
-     * @throws IOException If there is an issue with writing the log file.
+     * @throws IOException If there is an issue with reading the bundle contents.
      */
-    private void generateDuplicatedLog(@NotNull File logFile, BundleModule bundleModule) throws IOException {
+    private void collectDuplicatedLog(@NotNull File logFile, BundleModule bundleModule) throws IOException {
         long duplicatedSize = 0;
-        checkFileDoesNotExist(logFile.toPath());
-        try (Writer writer = new BufferedWriter(new FileWriter(logFile, false))) {
-            writer.write("res filter path mapping:\n");
-            writer.flush();
-            System.out.println("----------------------------------------");
-            System.out.println(" Resource Duplication Detected:");
-            System.out.println("----------------------------------------");
-
-            for (Map.Entry<ZipPath, String> entry : duplicatedFileList.entrySet()) {
-                ModuleEntry moduleEntry = bundleModule.getEntry(entry.getKey()).get();
-                long fileSize = AppBundleUtils.getZipEntrySize(bundleZipFile, moduleEntry, bundleModule);
-                duplicatedSize += fileSize;
-            }
+        StringBuilder log = new StringBuilder("res filter path mapping:\n");
+        System.out.println("----------------------------------------");
+        System.out.println(" Resource Duplication Detected:");
+        System.out.println("----------------------------------------");
 
-            System.out.printf("Found duplicated resources (Count: %d, Total Size: %s):\n%n", duplicatedFileList.size(), FileOperation.getNetFileSizeDescription(duplicatedSize));
-            duplicatedSize = 0;
-            for (Map.Entry<ZipPath, String> entry : duplicatedFileList.entrySet()) {
-                ZipPath keepPath = md5FileList.get(entry.getValue());
-                ModuleEntry moduleEntry = bundleModule.getEntry(entry.getKey()).get();
-                long fileSize = AppBundleUtils.getZipEntrySize(bundleZipFile, moduleEntry, bundleModule);
-                duplicatedSize += fileSize;
-                System.out.printf("- %s (size %s)%n", entry.getKey().toString(), FileOperation.getNetFileSizeDescription(duplicatedSize));
-                writer.write("\t" + entry.getKey().toString()
-                        + " -> "
-                        + keepPath.toString()
-                        + " (size " + FileOperation.getNetFileSizeDescription(fileSize) + ")"
-                        + "\n"
-                );
-            }
-            writer.write("removed: count(" + duplicatedFileList.size() + "), totalSize(" + FileOperation.getNetFileSizeDescription(duplicatedSize) + ")");
+        for (Map.Entry<ZipPath, String> entry : duplicatedFileList.entrySet()) {
+            ModuleEntry moduleEntry = bundleModule.getEntry(entry.getKey()).get();
+            long fileSize = AppBundleUtils.getZipEntrySize(bundleFile, moduleEntry, bundleModule);
+            duplicatedSize += fileSize;
         }
+
+        System.out.printf("Found duplicated resources (Count: %d, Total Size: %s):\n%n", duplicatedFileList.size(), FileOperation.getNetFileSizeDescription(duplicatedSize));
+        duplicatedSize = 0;
+        for (Map.Entry<ZipPath, String> entry : duplicatedFileList.entrySet()) {
+            ZipPath keepPath = md5FileList.get(entry.getValue());
+            ModuleEntry moduleEntry = bundleModule.getEntry(entry.getKey()).get();
+            long fileSize = AppBundleUtils.getZipEntrySize(bundleFile, moduleEntry, bundleModule);
+            duplicatedSize += fileSize;
+            System.out.printf("- %s (size %s)%n", entry.getKey().toString(), FileOperation.getNetFileSizeDescription(duplicatedSize));
+            log.append('\t').append(entry.getKey())
+                    .append(" -> ")
+                    .append(keepPath)
+                    .append(" (size ").append(FileOperation.getNetFileSizeDescription(fileSize)).append(")")
+                    .append('\n');
+        }
+        log.append("removed: count(").append(duplicatedFileList.size()).append("), totalSize(")
+                .append(FileOperation.getNetFileSizeDescription(duplicatedSize)).append(")");
+        pendingLogs.put(logFile, log.toString());
         mergeDuplicatedTotalSize += duplicatedSize;
         mergeDuplicatedTotalCount += duplicatedFileList.size();
     }
 
+    /**
+     * The size and CRC-32 of an entry, which are equal for all entries with the same content.
+     *
+     * @param size The uncompressed size of the entry.
+     * @param crc  The CRC-32 of the entry.
+     */
+    private record ContentKey(long size, long crc) {
+    }
+
     @Override
     public void close() throws IOException {
-        bundleZipFile.close();
+        bundleFile.close();
     }
 }
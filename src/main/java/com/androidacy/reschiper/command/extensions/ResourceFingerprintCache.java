@@ -0,0 +1,154 @@
+package com.androidacy.reschiper.command.extensions;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+/**
+ * A persistent cache of the MD5 hashes of bundle entries, used by {@link DuplicateResourceMerger} to skip
+ * hashing entries that did not change since the previous build.
+ * <p>
+ * An entry is identified by its path in the bundle (which includes the module), its uncompressed size and
+ * its CRC-32, all taken from the central directory of the bundle. A cached hash is only used when all of
+ * them match, so a changed entry is always hashed again. Only the entries looked up during a run are saved,
+ * which drops the entries of removed resources.
+ * <p>
+ * The cache file is a small binary file: a magic number and format version, the entry count, then for every
+ * entry its path, size, CRC-32 and the 16 bytes of its hash. A file that can not be read, or was written by
+ * another format version, is ignored and replaced on save.
+ */
+public class ResourceFingerprintCache {
+    private static final Logger logger = Logger.getLogger(ResourceFingerprintCache.class.getName());
+    private static final int MAGIC = 0x52434650; // "RCFP"
+    private static final int VERSION = 1;
+    private static final int MD5_LENGTH = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final HexFormat HEX_FORMAT = HexFormat.of();
+
+    private final Path cacheFile;
+    private final Map<String, Fingerprint> loadedFingerprints = new HashMap<>();
+    private final Map<String, Fingerprint> usedFingerprints = new HashMap<>();
+    private int hitCount = 0;
+
+    /**
+     * Loads the cache from the given file, starting empty if it does not exist or can not be read.
+     *
+     * @param cacheFile The cache file.
+     */
+    public ResourceFingerprintCache(@NotNull Path cacheFile) {
+        this.cacheFile = cacheFile;
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                load();
+            } catch (IOException e) {
+                logger.warning("- Ignoring unreadable fingerprint cache " + cacheFile + ": " + e.getMessage());
+                loadedFingerprints.clear();
+            }
+        }
+    }
+
+    /**
+     * Gets the cached MD5 hash of an entry, if the entry is unchanged since it was cached.
+     *
+     * @param zipEntry The entry in the bundle.
+     * @return The MD5 hash as a hexadecimal string, or null if it has to be computed.
+     */
+    public synchronized @Nullable String get(@NotNull ZipEntry zipEntry) {
+        Fingerprint fingerprint = loadedFingerprints.get(zipEntry.getName());
+        if (fingerprint == null || fingerprint.size() != zipEntry.getSize() || fingerprint.crc() != zipEntry.getCrc())
+            return null;
+        usedFingerprints.put(zipEntry.getName(), fingerprint);
+        hitCount++;
+        return HEX_FORMAT.formatHex(fingerprint.md5());
+    }
+
+    /**
+     * Records the MD5 hash of an entry.
+     *
+     * @param zipEntry The entry in the bundle.
+     * @param md5      The MD5 hash as a hexadecimal string.
+     */
+    public synchronized void put(@NotNull ZipEntry zipEntry, @NotNull String md5) {
+        usedFingerprints.put(zipEntry.getName(), new Fingerprint(zipEntry.getSize(), zipEntry.getCrc(), HEX_FORMAT.parseHex(md5)));
+    }
+
+    /**
+     * Gets the number of hashes served from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Writes the entries used during this run to the cache file, replacing it atomically.
+     *
+     * @throws IOException If the cache file can not be written.
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+        Path tempFile = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(usedFingerprints.size());
+                for (Map.Entry<String, Fingerprint> entry : usedFingerprints.entrySet()) {
+                    output.writeUTF(entry.getKey());
+                    output.writeLong(entry.getValue().size());
+                    output.writeLong(entry.getValue().crc());
+                    output.write(entry.getValue().md5());
+                }
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Reads all entries of the cache file.
+     *
+     * @throws IOException If the file can not be read or has an unknown format.
+     */
+    private void load() throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException("Not a fingerprint cache");
+            int version = input.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported fingerprint cache version " + version);
+            int count = input.readInt();
+            if (count < 0)
+                throw new IOException("Invalid fingerprint cache entry count " + count);
+            for (int i = 0; i < count; i++) {
+                String name = input.readUTF();
+                long size = input.readLong();
+                long crc = input.readLong();
+                byte[] md5 = new byte[MD5_LENGTH];
+                input.readFully(md5);
+                loadedFingerprints.put(name, new Fingerprint(size, crc, md5));
+            }
+        }
+    }
+
+    /**
+     * The cached hash of an entry, with the central directory values it was computed for.
+     *
+     * @param size The uncompressed size of the entry.
+     * @param crc  The CRC-32 of the entry.
+     * @param md5  The MD5 hash of the entry content.
+     */
+    private record Fingerprint(long size, long crc, byte[] md5) {
+    }
+}
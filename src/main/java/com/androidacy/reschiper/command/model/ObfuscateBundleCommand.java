@@ -102,6 +102,20 @@ public abstract class ObfuscateBundleCommand {
      */
     public abstract Optional<Set<String>> getLanguageWhiteList();
 
+    /**
+     * Get an optional flag indicating whether the stages run as one fused pass over each module.
+     *
+     * @return An optional flag indicating whether the fused pipeline is used, disabled if absent.
+     */
+    public abstract Optional<Boolean> getFusedPipeline();
+
+    /**
+     * Get an optional flag indicating whether the resource mapping file is written gzip-compressed.
+     *
+     * @return An optional flag indicating whether the mapping file is compressed, disabled if absent.
+     */
+    public abstract Optional<Boolean> getCompressMapping();
+
     /**
      * Builder pattern for constructing {@link ObfuscateBundleCommand} instances.
      */
@@ -196,6 +210,22 @@ public abstract class ObfuscateBundleCommand {
          */
         public abstract Builder setDisableSign(Boolean disableSign);
 
+        /**
+         * Set the flag to run the stages as one fused pass over each module.
+         *
+         * @param fusedPipeline A boolean flag indicating whether the fused pipeline is used.
+         * @return This builder instance for method chaining.
+         */
+        public abstract Builder setFusedPipeline(Boolean fusedPipeline);
+
+        /**
+         * Set the flag to write the resource mapping file gzip-compressed.
+         *
+         * @param compressMapping A boolean flag indicating whether the mapping file is compressed.
+         * @return This builder instance for method chaining.
+         */
+        public abstract Builder setCompressMapping(Boolean compressMapping);
+
         /**
          * Build a new {@link ObfuscateBundleCommand} instance with the configured properties.
          *
@@ -3,45 +3,51 @@ package com.androidacy.reschiper.obfuscation;
 import com.android.aapt.Resources;
 import com.android.tools.build.bundletool.model.*;
 import com.android.tools.build.bundletool.model.utils.ResourcesUtils;
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.io.ByteSource;
+import com.google.common.collect.Lists;
 import com.androidacy.reschiper.bundle.AppBundleUtils;
+import com.androidacy.reschiper.bundle.ModuleRewrite;
 import com.androidacy.reschiper.bundle.ResourceMapping;
-import com.androidacy.reschiper.bundle.ResourceTableBuilder;
 import com.androidacy.reschiper.operations.FileOperation;
 import com.androidacy.reschiper.operations.ResourceTableOperation;
 import com.androidacy.reschiper.parser.ResourcesMappingParser;
+import com.androidacy.reschiper.utils.GlobMatcher;
+import com.androidacy.reschiper.utils.ParallelExecutor;
 import com.androidacy.reschiper.utils.TimeClock;
-import com.androidacy.reschiper.utils.Utils;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
-import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.ZipFile;
+
+import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 
 /**
  * The `ResourcesObfuscator` class is responsible for obfuscating resources in an Android AppBundle.
  * It performs resource obfuscation based on provided mapping rules, while also allowing for whitelisting of resources.
  */
-public class ResourcesObfuscator implements Closeable {
+public class ResourcesObfuscator {
     public static final String RESOURCE_ANDROID_PREFIX = "android:";
     public static final String FILE_MAPPING_NAME = "resources-mapping.txt";
+    private static final String RESOURCES_DIRECTORY_PREFIX = BundleModule.RESOURCES_DIRECTORY + "/";
+    private static final int MIN_WHITELIST_CHUNK_SIZE = 1024;
     private static final Logger logger = Logger.getLogger(ResourcesObfuscator.class.getName());
     private final AppBundle rawAppBundle;
-    private final Set<String> whiteListRules;
-    private final List<Pattern> compiledWhiteListPatterns;
-    private final Path outputMappingPath;
-    private final ZipFile bundleZipFile;
+    private final GlobMatcher whiteListMatcher;
+    private final Set<String> whiteListPaths = new HashSet<>();
+    private final Set<String> whiteListFileDirs = new HashSet<>();
+    private Path outputMappingPath;
     private final ResourceMapping resourceMapping;
+    private final Map<String, StringObfuscator> nameGenerators = new HashMap<>();
+    private final StringObfuscator dirNameGenerator = new StringObfuscator();
+    private final Set<String> dirNames = new HashSet<>();
+    private final List<ModuleObfuscation> moduleObfuscations = new ArrayList<>();
 
     public enum MODE {
         DIR,
@@ -73,20 +79,22 @@ public class ResourcesObfuscator implements Closeable {
         else
             resourceMapping = new ResourceMapping();
 
-        this.bundleZipFile = new ZipFile(bundlePath.toFile());
+        checkFileExistsAndReadable(bundlePath);
         outputMappingPath = new File(outputLogLocationDir.toFile(), FILE_MAPPING_NAME).toPath();
-        if (Files.exists(outputMappingPath)) {
-            logger.warning(" Mapping File Cleanup:\n" +
-                    "- Deleted existing mapping file: " + outputMappingPath);
-            Files.delete(outputMappingPath);
-        }
+        deleteExistingMapping(outputMappingPath);
 
         this.rawAppBundle = rawAppBundle;
-        this.whiteListRules = whiteListRules;
-        this.compiledWhiteListPatterns = new ArrayList<>();
-        if (whiteListRules != null) {
-            for (String rule : whiteListRules)
-                compiledWhiteListPatterns.add(Pattern.compile(Utils.convertToPatternString(rule)));
+        if (whiteListRules == null)
+            whiteListRules = Set.of();
+        this.whiteListMatcher = new GlobMatcher(whiteListRules);
+        // directory and file rules only apply to res/resource-dir eg: res/raw
+        for (String rule : whiteListRules) {
+            if (rule.endsWith("/*")) {
+                String ruleWithoutWildcard = rule.substring(0, rule.length() - 2); // Remove "/*" from the rule
+                if (ruleWithoutWildcard.startsWith(RESOURCES_DIRECTORY_PREFIX))
+                    whiteListFileDirs.add(ruleWithoutWildcard);
+            } else if (rule.startsWith(RESOURCES_DIRECTORY_PREFIX))
+                whiteListPaths.add(rule);
         }
     }
 
@@ -97,40 +105,121 @@ public class ResourcesObfuscator implements Closeable {
     }
 
     /**
-     * Obfuscates resources in the AppBundle based on the provided mapping rules and whitelisting.
+     * Sets whether the text mapping file is written gzip-compressed, as {@value #FILE_MAPPING_NAME}.gz.
+     *
+     * @param compressMapping true to compress the mapping file.
+     * @throws IOException If an existing compressed mapping file can not be deleted.
+     */
+    public void withCompressedMapping(boolean compressMapping) throws IOException {
+        Path mappingPath = outputMappingPath.resolveSibling(FILE_MAPPING_NAME + (compressMapping ? ResourceMapping.GZIP_EXTENSION : ""));
+        if (mappingPath.equals(outputMappingPath))
+            return;
+        outputMappingPath = mappingPath;
+        deleteExistingMapping(outputMappingPath);
+    }
+
+    /**
+     * Deletes a mapping file left by a previous run.
+     *
+     * @param mappingPath The path to the mapping file.
+     * @throws IOException If the file can not be deleted.
+     */
+    private static void deleteExistingMapping(Path mappingPath) throws IOException {
+        if (Files.exists(mappingPath)) {
+            logger.warning(" Mapping File Cleanup:\n" +
+                    "- Deleted existing mapping file: " + mappingPath);
+            Files.delete(mappingPath);
+        }
+    }
+
+    /**
+     * Obfuscates resources in the AppBundle based on the provided mapping rules and whitelisting. The mapping is
+     * only written by {@link #writeMapping()}, so it can be written while the bundle is packaged.
      *
      * @return The obfuscated AppBundle.
      * @throws IOException If an I/O error occurs during obfuscation.
      */
     public AppBundle obfuscate() throws IOException {
+        TimeClock timeClock = new TimeClock();
+        List<ModuleRewrite> rewrites = new ArrayList<>();
+        for (BundleModule bundleModule : rawAppBundle.getModules().values())
+            rewrites.add(new ModuleRewrite(bundleModule));
+        obfuscateBundleModules(rewrites);
+        // rewrite bundle modules concurrently, they only read the mapping decided above
+        List<BundleModule> obfuscatedModuleList = ParallelExecutor.map(rewrites, ModuleRewrite::build);
+        Map<BundleModuleName, BundleModule> obfuscatedModules = new LinkedHashMap<>();
+        for (BundleModule obfuscatedModule : obfuscatedModuleList)
+            obfuscatedModules.put(obfuscatedModule.getName(), obfuscatedModule);
+        AppBundle appBundle = rawAppBundle.toBuilder().setModules(ImmutableMap.copyOf(obfuscatedModules)).build();
+        System.out.printf("- Obfuscation completed in %s%n\n", timeClock.getElapsedTime());
+        return appBundle;
+    }
+
+    /**
+     * Decides the obfuscated names of all modules and adds the renaming to their rewrites. Names are allocated
+     * serially, so the mapping does not depend on thread scheduling; once decided, the rewrites can be built
+     * concurrently. {@link #writeMapping()} must be called after the rewrites are built.
+     * <p>
+     * Whether a resource is whitelisted is decided up front for all resources of a module in one concurrent pass,
+     * so naming the resources only looks the decision up by resource id.
+     *
+     * @param rewrites The rewrites of the bundle modules.
+     * @throws IOException If the whitelist can not be resolved.
+     */
+    public void obfuscateBundleModules(@NotNull List<ModuleRewrite> rewrites) throws IOException {
         System.out.println(
                 """
                         ----------------------------------------
                          Resource Obfuscation:
                         ----------------------------------------
                         - Obfuscating resources...""");
-
-        TimeClock timeClock = new TimeClock();
         checkResMappingRules();
-        Map<BundleModuleName, BundleModule> obfuscatedModules = new HashMap<>();
+        dirNames.addAll(resourceMapping.getPathMappingNameList());
         // generate type entry mapping from mapping rule
         Map<String, Set<String>> typeEntryMapping = generateObfuscatedEntryFilesFromMapping();
-        for (Map.Entry<BundleModuleName, BundleModule> entry : rawAppBundle.getModules().entrySet()) {
-            BundleModule bundleModule = entry.getValue();
-            BundleModuleName bundleModuleName = entry.getKey();
+        for (ModuleRewrite rewrite : rewrites) {
             // generate obfuscation resources mapping
-            generateResourceMappingRule(bundleModule, typeEntryMapping);
+            generateResourceMappingRule(rewrite, typeEntryMapping, resolveWhiteList(rewrite));
             // obfuscate module entries
-            Map<String, String> obfuscateModuleEntriesMap = obfuscateModuleEntries(bundleModule, typeEntryMapping);
-            // obfuscate bundle module
-            BundleModule obfuscatedModule = obfuscateBundleModule(bundleModule, obfuscateModuleEntriesMap);
-            obfuscatedModules.put(bundleModuleName, obfuscatedModule);
+            Map<String, String> obfuscateModuleEntriesMap = obfuscateModuleEntries(rewrite, typeEntryMapping);
+            ModuleObfuscation moduleObfuscation = new ModuleObfuscation(rewrite.getBundleModule(), obfuscateModuleEntriesMap,
+                    new HashMap<>(), new HashMap<>());
+            moduleObfuscations.add(moduleObfuscation);
+            String moduleDir = rewrite.getBundleModule().getName().getName() + "/";
+            ModuleRewrite.Edit edit = rewrite.addEdit();
+            obfuscateModuleEntriesMap.forEach((bundleRawPath, bundleObfuscatedPath) -> {
+                ZipPath rawPath = ZipPath.create(bundleRawPath.substring(moduleDir.length()));
+                ZipPath obfuscatedPath = ZipPath.create(bundleObfuscatedPath);
+                edit.moveEntry(rawPath, obfuscatedPath);
+                edit.replaceFileReference(rawPath, obfuscatedPath);
+            });
+            edit.editResources((source, resEntry) -> obfuscateResource(moduleObfuscation, source, resEntry));
+            rewrite.addEdit().editResources((source, resEntry) -> {
+                ResourceTableOperation.checkConfiguration(resEntry);
+                return resEntry;
+            });
         }
-        AppBundle appBundle = rawAppBundle.toBuilder().setModules(ImmutableMap.copyOf(obfuscatedModules)).build();
-        System.out.printf("- Obfuscation completed in %s%n\n", timeClock.getElapsedTime());
+    }
+
+    /**
+     * Writes the mapping to the mapping file, including the resource ids collected while the rewrites were built.
+     *
+     * @throws IOException If the mapping file can not be written.
+     */
+    public void writeMapping() throws IOException {
+        collectResourceIds();
         // write mapping rules to file.
         resourceMapping.writeMappingToFile(outputMappingPath);
-        return appBundle;
+    }
+
+    /**
+     * Adds the resource ids collected by the module rewrites to the mapping.
+     */
+    private void collectResourceIds() {
+        for (ModuleObfuscation moduleObfuscation : moduleObfuscations) {
+            moduleObfuscation.resourceNameToId().forEach(resourceMapping::addResourceNameAndId);
+            moduleObfuscation.resourcePathToId().forEach(resourceMapping::addResourcePathAndId);
+        }
     }
 
     /**
@@ -164,45 +253,77 @@ public class ResourcesObfuscator implements Closeable {
         return typeEntryMapping;
     }
 
+    /**
+     * Decides for every resource of a module whether it is whitelisted. The resources are matched against the
+     * whitelist concurrently, in ranges of at least {@value #MIN_WHITELIST_CHUNK_SIZE} resources.
+     *
+     * @param rewrite The rewrite of the bundle module.
+     * @return The whitelist decisions by resource id.
+     * @throws IOException If a worker fails.
+     */
+    private @NotNull WhiteListDecisions resolveWhiteList(@NotNull ModuleRewrite rewrite) throws IOException {
+        Optional<Resources.ResourceTable> table = rewrite.getBundleModule().getResourceTable();
+        if (table.isEmpty())
+            return new WhiteListDecisions(0);
+        List<ResourceTableEntry> entries = ResourcesUtils.entries(table.get()).toList();
+        int chunkSize = Math.max(MIN_WHITELIST_CHUNK_SIZE, (entries.size() + ParallelExecutor.DEFAULT_PARALLELISM - 1) / ParallelExecutor.DEFAULT_PARALLELISM);
+        List<boolean[]> chunkDecisions = ParallelExecutor.map(Lists.partition(entries, chunkSize), chunk -> {
+            boolean[] decisions = new boolean[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++)
+                decisions[i] = isResourceInWhiteList(AppBundleUtils.getResourceFullName(chunk.get(i)));
+            return decisions;
+        });
+        WhiteListDecisions whiteList = new WhiteListDecisions(entries.size());
+        int index = 0;
+        for (boolean[] decisions : chunkDecisions) {
+            for (boolean decision : decisions)
+                whiteList.put(entries.get(index++).getResourceId().getFullResourceId(), decision);
+        }
+        return whiteList;
+    }
+
     /**
      * Reads resourceTable and generates obfuscation mapping based on the provided typeEntryMapping.
      *
-     * @param bundleModule     The bundle module for which to generate obfuscation mapping.
+     * @param rewrite          The rewrite of the bundle module for which to generate obfuscation mapping.
      * @param typeEntryMapping A map of resource types to their corresponding obfuscated entry names.
+     * @param whiteList        The whitelist decisions of the resources of the module.
      */
-    private void generateResourceMappingRule(@NotNull BundleModule bundleModule, Map<String, Set<String>> typeEntryMapping) {
+    private void generateResourceMappingRule(@NotNull ModuleRewrite rewrite, Map<String, Set<String>> typeEntryMapping,
+                                             @NotNull WhiteListDecisions whiteList) {
+        BundleModule bundleModule = rewrite.getBundleModule();
         if (bundleModule.getResourceTable().isEmpty())
             return;
-        StringObfuscator stringObfuscator = new StringObfuscator();
-        stringObfuscator.reset(null);
         Resources.ResourceTable table = bundleModule.getResourceTable().get();
         // generate resource directory mapping
-        ResourcesUtils.getAllFileReferences(table)
+        rewrite.getFileReferences()
                 .stream()
                 .map(ZipPath::getParent)
                 .filter(Objects::nonNull)
                 .filter(path -> !resourceMapping.getDirMapping().containsKey(path.toString()))
                 .forEach(path -> {
-                    stringObfuscator.reset(null);
-                    String name = stringObfuscator.getReplaceString(resourceMapping.getPathMappingNameList());
                     if (mode == MODE.FILES || isDirectoryInWhiteList(path.toString())) {
                         if (isDirectoryInWhiteList(path.toString()))
                             System.out.println(" - [whitelist][dir] " + path);
+                        dirNames.add(path.getFileName().toString());
                         resourceMapping.putDirMapping(path.toString(), path.toString());
-                    } else
+                    } else {
+                        String name = dirNameGenerator.getReplaceString(dirNames);
+                        dirNames.add(name);
                         resourceMapping.putDirMapping(path.toString(), BundleModule.RESOURCES_DIRECTORY + "/" + name);
+                    }
                 });
 
         // generate resource mapping
         ResourcesUtils.entries(table).forEach(entry -> {
             String resourceId = entry.getResourceId().toString();
             String resourceName = AppBundleUtils.getResourceFullName(entry);
+            boolean whiteListed = whiteList.isWhiteListed(entry.getResourceId().getFullResourceId(), () -> isResourceInWhiteList(resourceName));
             Set<String> obfuscationList = typeEntryMapping.get(entry.getType().getName());
             if (obfuscationList == null)
                 obfuscationList = new HashSet<>();
-            stringObfuscator.reset(null);
             if (resourceMapping.getResourceMapping().containsKey(resourceName)) {
-                if (isResourceInWhiteList(resourceName)) {
+                if (whiteListed) {
                     System.out.printf(" removing from mapping: %s, id: %s%n", resourceName, resourceId);
                     resourceMapping.getResourceMapping().remove(resourceName);
                 } else {
@@ -210,10 +331,10 @@ public class ResourcesObfuscator implements Closeable {
                     obfuscationList.add(AppBundleUtils.getEntryNameByResourceName(obfuscateResourceName));
                 }
             } else {
-                if (isResourceInWhiteList(resourceName))
+                if (whiteListed)
                     System.out.printf(" - [whitelist][resource] %s, id: %s%n", resourceName, resourceId);
                 else {
-                    String name = stringObfuscator.getReplaceString(obfuscationList);
+                    String name = getNameGenerator(entry.getType().getName()).getReplaceString(obfuscationList);
                     obfuscationList.add(name);
                     String obfuscatedResourceName = AppBundleUtils.getResourceFullName(entry.getPackage().getPackageName(), entry.getType().getName(), name);
                     resourceMapping.putResourceMapping(resourceName, obfuscatedResourceName);
@@ -226,18 +347,16 @@ public class ResourcesObfuscator implements Closeable {
     /**
      * Obfuscates module entries and returns the mapping rules.
      *
-     * @param bundleModule   The bundle module to obfuscate entries for.
+     * @param rewrite        The rewrite of the bundle module to obfuscate entries for.
      * @param typeMappingMap A map of resource types to their corresponding obfuscated entry names.
      * @return A map of obfuscated entry paths.
      */
-    private @NotNull Map<String, String> obfuscateModuleEntries(@NotNull BundleModule bundleModule, Map<String, Set<String>> typeMappingMap) {
-        StringObfuscator guardStringBuilder = new StringObfuscator();
-        guardStringBuilder.reset(null);
-        Map<String, String> obfuscateEntries = new HashMap<>();
-        bundleModule.getEntries().stream()
+    private @NotNull Map<String, String> obfuscateModuleEntries(@NotNull ModuleRewrite rewrite, Map<String, Set<String>> typeMappingMap) {
+        BundleModule bundleModule = rewrite.getBundleModule();
+        BiMap<String, String> obfuscateEntries = HashBiMap.create();
+        rewrite.getEntries().stream()
                 .filter(entry -> entry.getPath().startsWith(BundleModule.RESOURCES_DIRECTORY))
                 .forEach(entry -> {
-                    guardStringBuilder.reset(null);
                     String entryDir = entry.getPath().getParent().toString();
                     String obfuscateDir = resourceMapping.getDirMapping().get(entryDir); //obfuscateDir eg: res/raw -> res/a_
                     if (obfuscateDir == null)
@@ -261,7 +380,7 @@ public class ResourcesObfuscator implements Closeable {
                             } else {
                                 if ((mode == MODE.FILES || mode == MODE.DEFAULT)) {
                                     fileSuffix = FileOperation.getFileSuffix(entry.getPath());
-                                    obfuscatedName = guardStringBuilder.getReplaceString(mapping);
+                                    obfuscatedName = getNameGenerator(obfuscateDir).getReplaceString(mapping);
                                 } else {
                                     fileSuffix = "";
                                     obfuscatedName = FileOperation.getFileSimpleName(entry.getPath());
@@ -282,84 +401,46 @@ public class ResourcesObfuscator implements Closeable {
     }
 
     /**
-     * Obfuscates a bundle module by applying obfuscation rules to its entries and resourceTable.
+     * Renames a resource according to the mapping and collects its id. Runs concurrently for different
+     * modules while the rewrites are built, so it must not modify the shared resource mapping.
+     * File references are replaced by the rewrite itself.
      *
-     * @param bundleModule       The bundle module to obfuscate.
-     * @param obfuscatedEntryMap A map of obfuscated entry paths.
-     * @return The obfuscated bundle module.
-     * @throws IOException If an I/O error occurs during obfuscation.
+     * @param moduleObfuscation The obfuscation state of the module containing the resource.
+     * @param source            The resource in the original resource table.
+     * @param resEntry          The current value of the resource.
+     * @return The renamed resource.
      */
-    private BundleModule obfuscateBundleModule(@NotNull BundleModule bundleModule, Map<String, String> obfuscatedEntryMap) throws IOException {
-        BundleModule.Builder builder = bundleModule.toBuilder();
-        // obfuscate module entries
-        List<ModuleEntry> obfuscateEntries = new ArrayList<>();
-        for (ModuleEntry entry : bundleModule.getEntries()) {
-            String bundleRawPath = bundleModule.getName().getName() + "/" + entry.getPath().toString();
-            String obfuscatedPath = obfuscatedEntryMap.get(bundleRawPath);
-            if (obfuscatedPath != null) {
-                ModuleEntry obfuscatedEntry = ModuleEntry.builder().setPath(ZipPath.create(obfuscatedPath))
-                        .setContent(ByteSource.wrap(AppBundleUtils.readByte(bundleZipFile, entry, bundleModule))).build();
-                obfuscateEntries.add(obfuscatedEntry);
-            } else
-                obfuscateEntries.add(entry);
+    private Resources.Entry obfuscateResource(@NotNull ModuleObfuscation moduleObfuscation, @NotNull ResourceTableEntry source,
+                                              Resources.@NotNull Entry resEntry) {
+        String resourceName = AppBundleUtils.getResourceFullName(source);
+        String resourceId = source.getResourceId().toString();
+        String obfuscatedResName = resourceMapping.getResourceMapping().get(resourceName);
+        moduleObfuscation.resourceNameToId().put(resourceName, resourceId);
+        if (obfuscatedResName != null) {
+            // update entry name
+            String entryName = AppBundleUtils.getEntryNameByResourceName(obfuscatedResName);
+            resEntry = ResourceTableOperation.updateEntryName(resEntry, entryName);
+        }
+        String moduleDir = moduleObfuscation.bundleModule().getName().getName() + "/";
+        for (Resources.ConfigValue configValue : resEntry.getConfigValueList()) {
+            if (!configValue.getValue().getItem().hasFile())
+                continue;
+            String bundleRawPath = moduleDir + configValue.getValue().getItem().getFile().getPath(); // bundleRawPath base/res/resource-directory/filename
+            if (moduleObfuscation.obfuscatedEntryMap().containsKey(bundleRawPath))
+                moduleObfuscation.resourcePathToId().put(bundleRawPath, resourceId);
         }
-        builder.setRawEntries(obfuscateEntries);
-        // obfuscate resourceTable
-        Resources.ResourceTable obfuscatedResTable = obfuscateResourceTable(bundleModule, obfuscatedEntryMap);
-        if (obfuscatedResTable != null)
-            builder.setResourceTable(obfuscatedResTable);
-        return builder.build();
+        return resEntry;
     }
 
     /**
-     * Obfuscates the resourceTable of a bundle module based on the obfuscated entry mapping.
+     * Gets the name generator of a namespace, creating it on first use.
+     * Generators are keyed like the type entry mapping: by resource type name or by obfuscated directory.
      *
-     * @param bundleModule       The bundle module whose resourceTable is to be obfuscated.
-     * @param obfuscatedEntryMap A map of obfuscated entry paths.
-     * @return The obfuscated resourceTable.
+     * @param namespace The resource type name or obfuscated directory.
+     * @return The name generator for the namespace.
      */
-    private Resources.@Nullable ResourceTable obfuscateResourceTable(@NotNull BundleModule bundleModule, Map<String, String> obfuscatedEntryMap) {
-        if (bundleModule.getResourceTable().isEmpty())
-            return null;
-        Resources.ResourceTable resourceTable = bundleModule.getResourceTable().get();
-        ResourceTableBuilder resourceTableBuilder = new ResourceTableBuilder();
-        ResourcesUtils.entries(resourceTable).map(entry -> {
-            String resourceName = AppBundleUtils.getResourceFullName(entry);
-            String resourceId = entry.getResourceId().toString();
-            String obfuscatedResName = resourceMapping.getResourceMapping().get(resourceName);
-            resourceMapping.addResourceNameAndId(resourceName, resourceId);
-            Resources.Entry obfuscatedEntry = entry.getEntry();
-            if (obfuscatedResName != null) {
-                // update entry name
-                String entryName = AppBundleUtils.getEntryNameByResourceName(obfuscatedResName);
-                obfuscatedEntry = ResourceTableOperation.updateEntryName(obfuscatedEntry, entryName);
-            }
-            // update config values
-            List<Resources.ConfigValue> configValues = Stream.of(obfuscatedEntry)
-                    .map(Resources.Entry::getConfigValueList)
-                    .flatMap(Collection::stream)
-                    .map(configValue -> {
-                        if (!configValue.getValue().getItem().hasFile())
-                            return configValue;
-                        String rawPath = configValue.getValue().getItem().getFile().getPath(); // rawPath res/resource-directory/filename
-                        String bundleRawPath = bundleModule.getName().getName() + "/" + rawPath;
-                        String obfuscatedPath = obfuscatedEntryMap.get(bundleRawPath); //obfuscatedPath res/obfuscated-res-dir/filename.xml
-                        if (obfuscatedPath != null) {
-                            resourceMapping.addResourcePathAndId(bundleRawPath, resourceId);
-                            resourceMapping.putEntryFileMapping(bundleRawPath, obfuscatedPath);
-                            return ResourceTableOperation.replaceEntryPath(configValue, obfuscatedPath);
-                        }
-                        return configValue;
-                    })
-                    .collect(Collectors.toList());
-            if (!configValues.isEmpty())
-                obfuscatedEntry = ResourceTableOperation.updateEntryConfigValueList(obfuscatedEntry, configValues);
-            return ResourceTableEntry.create(entry.getPackage(), entry.getType(), obfuscatedEntry);
-        }).forEach(entry -> {
-            ResourceTableOperation.checkConfiguration(entry.getEntry());
-            resourceTableBuilder.addPackage(entry.getPackage()).addResource(entry.getType(), entry.getEntry());
-        });
-        return resourceTableBuilder.build();
+    private StringObfuscator getNameGenerator(String namespace) {
+        return nameGenerators.computeIfAbsent(namespace, key -> new StringObfuscator());
     }
 
     /**
@@ -385,11 +466,7 @@ public class ResourcesObfuscator implements Closeable {
         // android system resources should not be obfuscated
         if (resourceName.startsWith(RESOURCE_ANDROID_PREFIX))
             return true;
-        for (Pattern pattern : compiledWhiteListPatterns) {
-            if (pattern.matcher(resourceName).matches())
-                return true;
-        }
-        return false;
+        return whiteListMatcher.matches(resourceName);
     }
 
     /**
@@ -399,10 +476,8 @@ public class ResourcesObfuscator implements Closeable {
      * @return `true` if the directory is in the whitelist, `false` otherwise.
      */
     private boolean isDirectoryInWhiteList(@NotNull String dir) {
-        for (String rule : whiteListRules)
-            if (dir.startsWith(BundleModule.RESOURCES_DIRECTORY + "/") && rule.equals(dir)) // only take res/resource-dir eg: res/raw
-                return true;
-        return false;
+        // only take res/resource-dir eg: res/raw
+        return dir.startsWith(RESOURCES_DIRECTORY_PREFIX) && whiteListPaths.contains(dir);
     }
 
     /**
@@ -412,21 +487,84 @@ public class ResourcesObfuscator implements Closeable {
      * @return `true` if the file entry is in the whitelist, `false` otherwise.
      */
     private boolean isFileInWhiteList(@NotNull String entry) {
-        String filename = new File(entry).getName(); // filename: filename.{extension} eg: success_tick.json
-        String dir = entry.replace("/" + filename, "");
-        for (String rule : whiteListRules) {
-            if (rule.endsWith("/*")) {
-                String ruleWithoutWildcard = rule.substring(0, rule.length() - 2); // Remove "/*" from the rule
-                if (dir.startsWith(BundleModule.RESOURCES_DIRECTORY + "/") && dir.equals(ruleWithoutWildcard))
-                    return true;
-            } else if (entry.startsWith(BundleModule.RESOURCES_DIRECTORY + "/") && rule.equals(entry)) //entry: res/resource-dir/filename.{extension} eg: res/raw/success_tick.json
-                return true;
-        }
-        return false;
+        if (!entry.startsWith(RESOURCES_DIRECTORY_PREFIX))
+            return false;
+        //entry: res/resource-dir/filename.{extension} eg: res/raw/success_tick.json
+        if (whiteListPaths.contains(entry))
+            return true;
+        int separator = entry.lastIndexOf('/');
+        return whiteListFileDirs.contains(entry.substring(0, separator)); // dir: res/resource-dir eg: res/raw
+    }
+
+    /**
+     * The state of a bundle module while it is being obfuscated.
+     *
+     * @param bundleModule       The bundle module to obfuscate.
+     * @param obfuscatedEntryMap A map of raw entry paths to obfuscated entry paths.
+     * @param resourceNameToId   The resource ids by resource name, collected while the rewrite is built.
+     * @param resourcePathToId   The resource ids by entry path, collected while the rewrite is built.
+     */
+    private record ModuleObfuscation(BundleModule bundleModule, Map<String, String> obfuscatedEntryMap,
+                                     Map<String, String> resourceNameToId, Map<String, String> resourcePathToId) {
     }
 
-    @Override
-    public void close() throws IOException {
-        bundleZipFile.close();
+    /**
+     * The whitelist decisions of the resources of a module, in an open-addressing table keyed by resource id.
+     */
+    private static final class WhiteListDecisions {
+        private static final int EMPTY = 0; // resource ids always have a non-zero package id
+        private final int[] ids;
+        private final boolean[] decisions;
+        private final int mask;
+
+        /**
+         * Constructs an empty table.
+         *
+         * @param capacity The number of resources to hold.
+         */
+        private WhiteListDecisions(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            ids = new int[size];
+            decisions = new boolean[size];
+            mask = size - 1;
+        }
+
+        /**
+         * Records the decision of a resource.
+         *
+         * @param id          The resource id.
+         * @param whiteListed Whether the resource is whitelisted.
+         */
+        private void put(int id, boolean whiteListed) {
+            int slot = slot(id);
+            ids[slot] = id;
+            decisions[slot] = whiteListed;
+        }
+
+        /**
+         * Looks up the decision of a resource.
+         *
+         * @param id       The resource id.
+         * @param fallback Decides the resource if it was not resolved up front.
+         * @return Whether the resource is whitelisted.
+         */
+        private boolean isWhiteListed(int id, @NotNull BooleanSupplier fallback) {
+            int slot = slot(id);
+            return ids[slot] == id && id != EMPTY ? decisions[slot] : fallback.getAsBoolean();
+        }
+
+        /**
+         * Finds the slot of a resource id, or the empty slot it would go to.
+         *
+         * @param id The resource id.
+         * @return The slot.
+         */
+        private int slot(int id) {
+            int hash = id * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (ids[slot] != EMPTY && ids[slot] != id)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
     }
 }
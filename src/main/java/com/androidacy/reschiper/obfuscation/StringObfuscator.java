@@ -1,80 +1,90 @@
 package com.androidacy.reschiper.obfuscation;
 
+import com.androidacy.reschiper.utils.GlobMatcher;
 import com.androidacy.reschiper.utils.Utils;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * A utility class for generating obfuscated replacement strings.
+ * <p>
+ * Names are enumerated lazily from a counter in shortest-first order (a..z, a0..zz, a00..zzz, a000...),
+ * growing by one character whenever all names of the current length are used, so the candidate list is
+ * never materialized and a single namespace is not limited in size. Each instance is a cursor over one
+ * namespace (a resource type or an obfuscated directory): names behind the cursor are never revisited, so
+ * every returned name must be recorded in the collection passed to {@link #getReplaceString(Collection)}.
  */
 public class StringObfuscator {
 
-    private final List<String> replaceStringBuffer;
+    private static final char[] A_TO_Z = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final char[] A_TO_ALL = "0123456789_abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final Set<String> FILE_NAME_BLACKLIST = new HashSet<>(Arrays.asList(
+            "con", "prn", "aux", "nul",
+            "com1", "com2", "com3", "com4", "com5", "com6", "com7", "com8", "com9",
+            "lpt1", "lpt2", "lpt3", "lpt4", "lpt5", "lpt6", "lpt7", "lpt8", "lpt9"
+    ));
 
-    private static final String[] A_TO_Z = {
-            "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v",
-            "w", "x", "y", "z"
-    };
-    private static final String[] A_TO_ALL = {
-            "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "_", "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k",
-            "l", "m", "n", "o", "p", "q", "r", "s", "t", "u", "v", "w", "x", "y", "z"
-    };
-    private static final Set<String> FILE_NAME_BLACKLIST = new HashSet<>(Arrays.asList("con", "prn", "aux", "nul"));
-    private static final int MAX_OBFUSCATION_LIMIT = 35594;
+    private GlobMatcher blacklistPatterns;
+    private int length;
+    private long index;
+    private long capacity;
 
     /**
      * Initializes a new instance of the StringObfuscator class.
      */
     public StringObfuscator() {
-        replaceStringBuffer = new ArrayList<>();
+        reset(null);
     }
 
     /**
      * Resets the state of the StringObfuscator with the provided blacklist patterns.
      *
-     * @param blacklistPatterns A set of regular expression patterns for blacklisted strings.
+     * @param blacklistPatterns The compiled glob rules of blacklisted strings, or null for none.
      */
-    public void reset(HashSet<Pattern> blacklistPatterns) {
-        replaceStringBuffer.clear();
-
-        for (String str : A_TO_Z)
-            if (Utils.match(str, blacklistPatterns))
-                replaceStringBuffer.add(str);
-
-        for (String first : A_TO_Z)
-            for (String aMAToAll : A_TO_ALL) {
-                String str = first + aMAToAll;
-                if (Utils.match(str, blacklistPatterns))
-                    replaceStringBuffer.add(str);
-            }
-
-        for (String first : A_TO_Z)
-            for (String second : A_TO_ALL)
-                for (String third : A_TO_ALL) {
-                    String str = first + second + third;
-                    if (!FILE_NAME_BLACKLIST.contains(str) && Utils.match(str, blacklistPatterns))
-                        replaceStringBuffer.add(str);
-                }
+    public void reset(GlobMatcher blacklistPatterns) {
+        this.blacklistPatterns = blacklistPatterns;
+        this.length = 1;
+        this.index = 0;
+        this.capacity = A_TO_Z.length;
     }
 
     /**
-     * Gets a replacement string from the buffer based on the provided names.
+     * Gets the next replacement string that is not contained in the provided names.
      *
      * @param names A collection of names to exclude from the replacements.
      * @return The replacement string.
-     * @throws IllegalArgumentException If the replacement buffer is empty.
      */
-    public String getReplaceString(Collection<String> names) throws IllegalArgumentException {
-        if (replaceStringBuffer.isEmpty())
-            throw new IllegalArgumentException("Now can only obfuscate up to " + MAX_OBFUSCATION_LIMIT + " in a single type");
-        if (names != null)
-            for (int i = 0; i < replaceStringBuffer.size(); i++) {
-                String name = replaceStringBuffer.get(i);
-                if (names.contains(name))
-                    continue;
-                return replaceStringBuffer.remove(i);
+    public String getReplaceString(Collection<String> names) {
+        while (true) {
+            if (index >= capacity) {
+                // all names of the current length are used, continue with the next length
+                capacity = Math.multiplyExact(capacity, A_TO_ALL.length);
+                length++;
+                index = 0;
             }
-        return replaceStringBuffer.remove(0);
+            String name = nameAt(length, index++);
+            if (FILE_NAME_BLACKLIST.contains(name) || !Utils.match(name, blacklistPatterns))
+                continue;
+            if (names != null && names.contains(name))
+                continue;
+            return name;
+        }
+    }
+
+    /**
+     * Encodes a counter value as a name: the first character is a letter, the others are base-37 digits.
+     *
+     * @param length The name length.
+     * @param index  The position of the name among all names of that length.
+     * @return The encoded name.
+     */
+    private static String nameAt(int length, long index) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i > 0; i--) {
+            chars[i] = A_TO_ALL[(int) (index % A_TO_ALL.length)];
+            index /= A_TO_ALL.length;
+        }
+        chars[0] = A_TO_Z[(int) index];
+        return new String(chars);
     }
 }
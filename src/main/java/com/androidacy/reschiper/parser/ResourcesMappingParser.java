@@ -1,24 +1,37 @@
 package com.androidacy.reschiper.parser;
 
+import com.androidacy.reschiper.bundle.BinaryResourceMapping;
 import com.androidacy.reschiper.bundle.ResourceMapping;
+import com.androidacy.reschiper.utils.ParallelExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
 
 import static com.android.tools.build.bundletool.model.utils.files.FilePreconditions.checkFileExistsAndReadable;
 
 /**
  * This class is responsible for parsing a resource mapping file used for resource obfuscation
  * in Android development and populating a {@link ResourceMapping} object with the mappings.
+ * <p>
+ * If the binary mapping written next to the text mapping is present and was written with the same text mapping,
+ * as told by the size and checksum recorded in it, the binary mapping is loaded instead. A binary mapping can also be given directly.
  */
 public class ResourcesMappingParser {
-    private static final Pattern MAP_DIR_PATTERN = Pattern.compile("^\\s+(.*)->(.*)");
-    private static final Pattern MAP_RES_PATTERN = Pattern.compile("^\\s+(.*):(.*)->(.*)");
+    private static final Logger logger = Logger.getLogger(ResourcesMappingParser.class.getName());
+    private static final String ARROW = "->";
+    private static final int MIN_PARALLEL_CHUNK_LENGTH = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
     private final Path mappingPath;
+    private int parallelism = ParallelExecutor.DEFAULT_PARALLELISM;
 
     /**
      * Constructs a new ResourcesMappingParser with the specified mapping file path.
@@ -31,6 +44,16 @@ public class ResourcesMappingParser {
         this.mappingPath = mappingPath;
     }
 
+    /**
+     * Sets the number of threads parsing a large text mapping. Lines are split into ranges parsed concurrently,
+     * then applied to the mapping in file order, so the result does not depend on the parallelism.
+     *
+     * @param parallelism The number of parser threads, 1 parses on the calling thread only.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
     /**
      * Parses the resource mapping file and returns a populated {@link ResourceMapping} object.
      *
@@ -38,45 +61,187 @@ public class ResourcesMappingParser {
      * @throws IOException If an I/O error occurs while reading the mapping file.
      */
     public ResourceMapping parse() throws IOException {
-        ResourceMapping mapping = new ResourceMapping();
-        FileReader fr = new FileReader(mappingPath.toFile());
-        BufferedReader br = new BufferedReader(fr);
-        String line = br.readLine();
-        while (line != null) {
-            if (line.isEmpty()) {
-                line = br.readLine();
-                continue;
+        if (mappingPath.getFileName().toString().endsWith(BinaryResourceMapping.FILE_EXTENSION))
+            return BinaryResourceMapping.read(mappingPath);
+        Path binaryPath = BinaryResourceMapping.getBinaryMappingPath(mappingPath);
+        if (Files.isRegularFile(binaryPath)) {
+            try {
+                ResourceMapping mapping = BinaryResourceMapping.readIfCurrent(binaryPath, mappingPath);
+                if (mapping != null)
+                    return mapping;
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warning("- Ignoring unreadable binary mapping " + binaryPath + ": " + e.getMessage());
             }
-            System.out.println("Res: " + line);
-            if (!line.contains(":")) {
-                Matcher mat = MAP_DIR_PATTERN.matcher(line);
-                if (mat.find()) {
-                    String rawName = mat.group(1).trim();
-                    String obfuscateName = mat.group(2).trim();
-                    if (!line.contains("/") || line.contains("."))
-                        throw new IllegalArgumentException("Unexpected resource dir: " + line);
-                    mapping.putDirMapping(rawName, obfuscateName);
-                }
-            } else {
-                Matcher mat = MAP_RES_PATTERN.matcher(line);
-                if (mat.find()) {
-                    String rawName = mat.group(2).trim();
-                    String obfuscateName = mat.group(3).trim();
-                    if (line.contains("/"))
-                        mapping.putEntryFileMapping(rawName, obfuscateName);
-                    else {
-                        int packagePos = rawName.indexOf(".R.");
-                        if (packagePos == -1)
-                            throw new IllegalArgumentException(String.format("the mapping file packageName is malformed, "
-                                            + "it should be like com.github.goldfish07.ugc.R.attr.test, yours %s\n", rawName));
-                        mapping.putResourceMapping(rawName, obfuscateName);
-                    }
+        }
+        return parseText();
+    }
+
+    /**
+     * Parses the text resource mapping file.
+     *
+     * @return A {@link ResourceMapping} object containing the parsed resource mappings.
+     * @throws IOException If an I/O error occurs while reading the mapping file.
+     */
+    private ResourceMapping parseText() throws IOException {
+        byte[] bytes;
+        if (mappingPath.getFileName().toString().endsWith(ResourceMapping.GZIP_EXTENSION)) {
+            try (InputStream input = new GZIPInputStream(Files.newInputStream(mappingPath), READ_BUFFER_SIZE)) {
+                bytes = input.readAllBytes();
+            }
+        } else {
+            bytes = Files.readAllBytes(mappingPath);
+        }
+        String content = new String(bytes, StandardCharsets.UTF_8);
+        int chunkCount = (int) Math.max(1, Math.min(parallelism, content.length() / MIN_PARALLEL_CHUNK_LENGTH));
+        List<int[]> chunks = new ArrayList<>(chunkCount);
+        int chunkStart = 0;
+        for (int i = 1; i <= chunkCount && chunkStart < content.length(); i++) {
+            int chunkEnd = content.length();
+            if (i < chunkCount) {
+                int lineEnd = content.indexOf('\n', (int) ((long) content.length() * i / chunkCount));
+                if (lineEnd != -1)
+                    chunkEnd = lineEnd + 1;
+            }
+            if (chunkEnd > chunkStart)
+                chunks.add(new int[]{chunkStart, chunkEnd});
+            chunkStart = chunkEnd;
+        }
+        List<List<MappingLine>> parsedChunks = ParallelExecutor.map(chunks, chunk -> parseLines(content, chunk[0], chunk[1]), parallelism);
+
+        ResourceMapping mapping = new ResourceMapping();
+        int lineCount = 0;
+        for (List<MappingLine> lines : parsedChunks) {
+            for (MappingLine line : lines) {
+                switch (line.kind()) {
+                    case DIR -> mapping.putDirMapping(line.rawName(), line.obfuscatedName());
+                    case RESOURCE -> mapping.putResourceMapping(line.rawName(), line.obfuscatedName());
+                    case ENTRY_FILE -> mapping.putEntryFileMapping(line.rawName(), line.obfuscatedName());
                 }
             }
-            line = br.readLine();
+            lineCount += lines.size();
         }
-        br.close();
-        fr.close();
+        System.out.printf("- Loaded %d mapping rules from %s%n", lineCount, mappingPath.getFileName());
         return mapping;
     }
+
+    /**
+     * Parses the mapping lines of a range of the file.
+     *
+     * @param content The file content.
+     * @param start   The start of the range, at the start of a line.
+     * @param end     The end of the range, after the end of a line or at the end of the file.
+     * @return The mapping lines of the range, in file order.
+     */
+    private static @NotNull List<MappingLine> parseLines(@NotNull String content, int start, int end) {
+        List<MappingLine> lines = new ArrayList<>();
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = content.indexOf('\n', lineStart);
+            if (lineEnd == -1 || lineEnd > end)
+                lineEnd = end;
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && content.charAt(lineEnd - 1) == '\r')
+                lineEnd--;
+            MappingLine line = parseLine(content, lineStart, lineEnd);
+            if (line != null)
+                lines.add(line);
+            lineStart = next;
+        }
+        return lines;
+    }
+
+    /**
+     * Parses one line of the mapping file. Mapping lines are indented and have the form
+     * {@code raw -> obfuscated} for directories, and {@code id : raw -> obfuscated} for resources and entry
+     * files, where entry files are told apart by their path separators. Other lines are section headers or
+     * blank.
+     *
+     * @param content The file content.
+     * @param start   The start of the line.
+     * @param end     The end of the line, excluding the line terminator.
+     * @return The mapping line, or null if the line is not a mapping line.
+     * @throws IllegalArgumentException If the line is a malformed mapping line.
+     */
+    private static @Nullable MappingLine parseLine(@NotNull String content, int start, int end) {
+        if (end - start < 3 || !isWhitespace(content.charAt(start)))
+            return null;
+        int arrow = end - ARROW.length();
+        while (arrow > start && !content.startsWith(ARROW, arrow))
+            arrow--;
+        if (arrow <= start)
+            return null;
+        boolean hasSeparator = indexOf(content, '/', start, end) != -1;
+        if (indexOf(content, ':', start, end) == -1) {
+            if (!hasSeparator || indexOf(content, '.', start, end) != -1)
+                throw new IllegalArgumentException("Unexpected resource dir: " + content.substring(start, end));
+            return new MappingLine(MappingLine.Kind.DIR, trim(content, start, arrow), trim(content, arrow + ARROW.length(), end));
+        }
+        int colon = arrow - 1;
+        while (colon > start && content.charAt(colon) != ':')
+            colon--;
+        if (colon <= start)
+            return null;
+        String rawName = trim(content, colon + 1, arrow);
+        String obfuscatedName = trim(content, arrow + ARROW.length(), end);
+        if (hasSeparator)
+            return new MappingLine(MappingLine.Kind.ENTRY_FILE, rawName, obfuscatedName);
+        if (!rawName.contains(".R."))
+            throw new IllegalArgumentException(String.format("the mapping file packageName is malformed, "
+                    + "it should be like com.github.goldfish07.ugc.R.attr.test, yours %s\n", rawName));
+        return new MappingLine(MappingLine.Kind.RESOURCE, rawName, obfuscatedName);
+    }
+
+    /**
+     * Finds the first occurrence of a character within a range of a string.
+     *
+     * @param content The string.
+     * @param c       The character to find.
+     * @param start   The start of the range.
+     * @param end     The end of the range.
+     * @return The index of the character, or -1 if the range does not contain it.
+     */
+    private static int indexOf(@NotNull String content, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (content.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a range of a string without its leading and trailing whitespace, like {@link String#trim()}.
+     *
+     * @param content The string.
+     * @param start   The start of the range.
+     * @param end     The end of the range.
+     * @return The trimmed range.
+     */
+    private static @NotNull String trim(@NotNull String content, int start, int end) {
+        while (start < end && content.charAt(start) <= ' ')
+            start++;
+        while (end > start && content.charAt(end - 1) <= ' ')
+            end--;
+        return content.substring(start, end);
+    }
+
+    /**
+     * Checks whether a character is whitespace as matched by {@code \\s} in a regular expression.
+     *
+     * @param c The character.
+     * @return true if the character is whitespace.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * A parsed mapping line.
+     *
+     * @param kind           The section of the mapping the line belongs to.
+     * @param rawName        The raw name.
+     * @param obfuscatedName The obfuscated name.
+     */
+    private record MappingLine(Kind kind, String rawName, String obfuscatedName) {
+        private enum Kind {DIR, RESOURCE, ENTRY_FILE}
+    }
 }
@@ -74,6 +74,12 @@ public abstract class ResChiperTask extends DefaultTask {
     @Input
     public abstract Property<Boolean> getMergeDuplicateResources();
 
+    @Input
+    public abstract Property<Boolean> getFusedPipeline();
+
+    @Input
+    public abstract Property<Boolean> getCompressMapping();
+
     @Input
     @Optional
     public abstract Property<String> getMappingFilePath();
@@ -142,11 +148,15 @@ public abstract class ResChiperTask extends DefaultTask {
         Command.Builder builder = Command.builder();
         builder.setBundlePath(bundlePath);
         builder.setOutputPath(obfuscatedBundlePath);
+        builder.setCacheDirectory(getBuildDirectory().get().getAsFile().toPath()
+                .resolve("intermediates").resolve("reschiper").resolve(getVariantName().get()));
 
         ObfuscateBundleCommand.Builder obfuscateBuilder = ObfuscateBundleCommand.builder()
                 .setEnableObfuscate(getEnableObfuscation().get())
                 .setObfuscationMode(getObfuscationMode().get())
                 .setMergeDuplicatedResources(getMergeDuplicateResources().get())
+                .setFusedPipeline(getFusedPipeline().get())
+                .setCompressMapping(getCompressMapping().get())
                 .setWhiteList(getWhiteList().get())
                 .setFilterFile(getEnableFileFiltering().get())
                 .setFileFilterRules(getFileFilterList().get())
@@ -210,6 +220,8 @@ public abstract class ResChiperTask extends DefaultTask {
                 "\tenableFileFiltering=" + getEnableFileFiltering().get() + "\n" +
                 "\tenableFilterStrings=" + getEnableFilterStrings().get() + "\n" +
                 "\tmergeDuplicateResources=" + getMergeDuplicateResources().get() + "\n" +
+                "\tfusedPipeline=" + getFusedPipeline().get() + "\n" +
+                "\tcompressMapping=" + getCompressMapping().get() + "\n" +
                 "\tmappingFile=" + getMappingFilePath().getOrElse(null) + "\n" +
                 "\tobfuscatedBundleName=" + getObfuscatedBundleName().get() + "\n" +
                 "\tunusedStringFile=" + getUnusedStringFilePath().get() + "\n" +
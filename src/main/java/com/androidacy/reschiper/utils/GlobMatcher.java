@@ -0,0 +1,337 @@
+package com.androidacy.reschiper.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/**
+ * Matches names against a list of glob rules in one pass per name, regardless of the number of rules. This is the
+ * rule engine shared by the file filter, the resource whitelist and the name blacklist.
+ * <p>
+ * The rules use the syntax of {@link Utils#convertToPatternString(String)}: {@code ?} matches zero or one
+ * character, {@code *} zero or more and {@code +} one or more, every other character matches itself, and a rule
+ * must match the whole name. Every rule is identified by its position in the list, and a name matching several
+ * rules reports the first of them. Rules without wildcards are looked up in a hash map. The other rules are compiled
+ * together into one automaton whose deterministic states are built lazily, on the first name reaching them, and
+ * shared by all threads, so a matcher can be used concurrently. Rules using regular expression syntax beyond the
+ * glob wildcards are still matched as regular expressions, as before.
+ */
+public class GlobMatcher {
+    private static final String REGEX_METACHARACTERS = "\\^$|()[]{}";
+    private static final int MAX_CACHED_STATES = 4096;
+    private static final byte LITERAL = 0;
+    private static final byte ANY = 1;
+    private static final byte OPTIONAL = 2;
+    private static final byte STAR = 3;
+    private static final byte ACCEPT = 4;
+
+    /**
+     * The id returned for a name matching no rule.
+     */
+    public static final int NO_MATCH = -1;
+
+    private final List<String> rules;
+    private final Map<String, Integer> literals = new HashMap<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final List<Integer> patternRules = new ArrayList<>();
+    // the positions of all glob rules, every rule ending with an accepting position holding its rule id
+    private final byte[] tokenTypes;
+    private final char[] tokenChars;
+    private final int[] acceptRules;
+    private final int[] ruleStarts;
+    // every character class is a character appearing in a rule, the last class stands for all other characters
+    private final int[] asciiClasses = new int[128];
+    private final Map<Character, Integer> classes = new HashMap<>();
+    private final int otherClass;
+    private final Map<IntSet, State> cachedStates = new HashMap<>();
+    private final State initialState;
+
+    /**
+     * Compiles a list of glob rules.
+     *
+     * @param rules The rules, in the order they are reported in.
+     */
+    public GlobMatcher(@NotNull Collection<String> rules) {
+        this.rules = List.copyOf(rules);
+        List<Integer> globs = new ArrayList<>();
+        for (int rule = 0; rule < this.rules.size(); rule++) {
+            String value = this.rules.get(rule);
+            if (containsAny(value, REGEX_METACHARACTERS)) {
+                patterns.add(Pattern.compile(Utils.convertToPatternString(value)));
+                patternRules.add(rule);
+            } else if (containsAny(value, "?*+"))
+                globs.add(rule);
+            else
+                literals.putIfAbsent(value, rule);
+        }
+        int positionCount = 0;
+        for (int rule : globs)
+            positionCount += this.rules.get(rule).length() + 1 + count(this.rules.get(rule), '+');
+        tokenTypes = new byte[positionCount];
+        tokenChars = new char[positionCount];
+        acceptRules = new int[positionCount];
+        ruleStarts = new int[globs.size()];
+        Arrays.fill(asciiClasses, -1);
+        int position = 0;
+        for (int glob = 0; glob < globs.size(); glob++) {
+            ruleStarts[glob] = position;
+            for (char c : this.rules.get(globs.get(glob)).toCharArray()) {
+                switch (c) {
+                    case '?' -> tokenTypes[position++] = OPTIONAL;
+                    case '*' -> tokenTypes[position++] = STAR;
+                    case '+' -> {
+                        tokenTypes[position++] = ANY;
+                        tokenTypes[position++] = STAR;
+                    }
+                    default -> {
+                        tokenTypes[position] = LITERAL;
+                        tokenChars[position++] = c;
+                        addClass(c);
+                    }
+                }
+            }
+            tokenTypes[position] = ACCEPT;
+            acceptRules[position++] = globs.get(glob);
+        }
+        otherClass = classes.size();
+        IntSet start = new IntSet(closure(ruleStarts));
+        initialState = new State(start.values, getAcceptRule(start.values), otherClass + 1);
+        cachedStates.put(start, initialState);
+    }
+
+    /**
+     * Checks whether a name matches any of the rules.
+     *
+     * @param name The name.
+     * @return true if the name matches a rule.
+     */
+    public boolean matches(@NotNull String name) {
+        if (literals.containsKey(name) || matchGlobs(name) != NO_MATCH)
+            return true;
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first rule matching a name.
+     *
+     * @param name The name.
+     * @return The id of the first matching rule, or {@link #NO_MATCH} if no rule matches.
+     */
+    public int match(@NotNull String name) {
+        int match = literals.getOrDefault(name, NO_MATCH);
+        int globMatch = matchGlobs(name);
+        if (globMatch != NO_MATCH && (match == NO_MATCH || globMatch < match))
+            match = globMatch;
+        for (int i = 0; i < patterns.size() && (match == NO_MATCH || patternRules.get(i) < match); i++) {
+            if (patterns.get(i).matcher(name).matches())
+                return patternRules.get(i);
+        }
+        return match;
+    }
+
+    /**
+     * Gets a rule by its id.
+     *
+     * @param id The id of the rule.
+     * @return The rule.
+     */
+    public @NotNull String getRule(int id) {
+        return rules.get(id);
+    }
+
+    /**
+     * Runs a name through the automaton of the wildcard rules.
+     *
+     * @param name The name.
+     * @return The id of the first matching wildcard rule, or {@link #NO_MATCH} if none matches.
+     */
+    private int matchGlobs(@NotNull String name) {
+        if (ruleStarts.length == 0)
+            return NO_MATCH;
+        State state = initialState;
+        for (int i = 0; i < name.length() && state.positions.length > 0; i++) {
+            char c = name.charAt(i);
+            int characterClass = c < 128 ? asciiClasses[c] : classes.getOrDefault(c, -1);
+            if (characterClass == -1)
+                characterClass = otherClass;
+            // wildcards never match line terminators, like . in a regular expression
+            State next = isLineTerminator(c) ? null : state.next.get(characterClass);
+            state = next != null ? next : step(state, c, characterClass);
+        }
+        return state.acceptRule;
+    }
+
+    /**
+     * Computes the state reached from a state by a character, caching it unless the automaton grew too large.
+     *
+     * @param state          The current state.
+     * @param c              The character.
+     * @param characterClass The class of the character.
+     * @return The next state.
+     */
+    private synchronized @NotNull State step(@NotNull State state, char c, int characterClass) {
+        boolean lineTerminator = isLineTerminator(c);
+        if (!lineTerminator) {
+            State cached = state.next.get(characterClass);
+            if (cached != null)
+                return cached;
+        }
+        int[] targets = new int[state.positions.length];
+        int targetCount = 0;
+        for (int position : state.positions) {
+            switch (tokenTypes[position]) {
+                case LITERAL -> {
+                    if (tokenChars[position] == c)
+                        targets[targetCount++] = position + 1;
+                }
+                case ANY, OPTIONAL -> {
+                    if (!lineTerminator)
+                        targets[targetCount++] = position + 1;
+                }
+                case STAR -> {
+                    if (!lineTerminator)
+                        targets[targetCount++] = position;
+                }
+            }
+        }
+        IntSet key = new IntSet(closure(Arrays.copyOf(targets, targetCount)));
+        State next = cachedStates.get(key);
+        if (next == null) {
+            next = new State(key.values, getAcceptRule(key.values), otherClass + 1);
+            if (cachedStates.size() < MAX_CACHED_STATES)
+                cachedStates.put(key, next);
+            else
+                return next;
+        }
+        if (!lineTerminator)
+            state.next.set(characterClass, next);
+        return next;
+    }
+
+    /**
+     * Adds the positions reachable without consuming a character, skipping optional wildcards.
+     *
+     * @param positions The positions.
+     * @return The sorted positions, including those reachable from them.
+     */
+    private int @NotNull [] closure(int @NotNull [] positions) {
+        BitSet reached = new BitSet(tokenTypes.length);
+        for (int position : positions) {
+            while (!reached.get(position)) {
+                reached.set(position);
+                if (tokenTypes[position] != OPTIONAL && tokenTypes[position] != STAR)
+                    break;
+                position++;
+            }
+        }
+        return reached.stream().toArray();
+    }
+
+    /**
+     * Gets the first rule whose accepting position is in a set of positions.
+     *
+     * @param positions The positions.
+     * @return The id of the first matching rule, or {@link #NO_MATCH} if none matches.
+     */
+    private int getAcceptRule(int @NotNull [] positions) {
+        int acceptRule = NO_MATCH;
+        for (int position : positions) {
+            if (tokenTypes[position] == ACCEPT && (acceptRule == NO_MATCH || acceptRules[position] < acceptRule))
+                acceptRule = acceptRules[position];
+        }
+        return acceptRule;
+    }
+
+    /**
+     * Gives a character appearing in a rule its own character class.
+     *
+     * @param c The character.
+     */
+    private void addClass(char c) {
+        if (classes.containsKey(c))
+            return;
+        int characterClass = classes.size();
+        classes.put(c, characterClass);
+        if (c < 128)
+            asciiClasses[c] = characterClass;
+    }
+
+    /**
+     * Checks whether a character is a line terminator, which is not matched by . in a regular expression.
+     *
+     * @param c The character.
+     * @return true if the character is a line terminator.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Checks whether a string contains any of a set of characters.
+     *
+     * @param value      The string.
+     * @param characters The characters.
+     * @return true if the string contains one of the characters.
+     */
+    private static boolean containsAny(@NotNull String value, @NotNull String characters) {
+        for (int i = 0; i < value.length(); i++) {
+            if (characters.indexOf(value.charAt(i)) != -1)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the occurrences of a character in a string.
+     *
+     * @param value The string.
+     * @param c     The character.
+     * @return The number of occurrences.
+     */
+    private static int count(@NotNull String value, char c) {
+        int count = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == c)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * A deterministic state of the automaton: the set of rule positions reached by a prefix of the name.
+     */
+    private static final class State {
+        private final int[] positions;
+        private final int acceptRule;
+        private final AtomicReferenceArray<State> next;
+
+        private State(int[] positions, int acceptRule, int classCount) {
+            this.positions = positions;
+            this.acceptRule = acceptRule;
+            this.next = new AtomicReferenceArray<>(classCount);
+        }
+    }
+
+    /**
+     * A sorted set of positions, usable as a map key.
+     *
+     * @param values The sorted positions.
+     */
+    private record IntSet(int[] values) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntSet other && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+}
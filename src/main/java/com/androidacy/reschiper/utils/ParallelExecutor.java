@@ -0,0 +1,90 @@
+package com.androidacy.reschiper.utils;
+
+import org.apache.commons.io.function.IOFunction;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A utility class for running independent pieces of work on a fork/join pool.
+ */
+public class ParallelExecutor {
+
+    /**
+     * The number of worker threads used when no explicit parallelism is requested.
+     */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Applies a function to every item concurrently and returns the results in the order of the items.
+     *
+     * @param items    The items to process.
+     * @param function The function to apply to each item.
+     * @param <T>      The item type.
+     * @param <R>      The result type.
+     * @return The results, in the same order as the items.
+     * @throws IOException If the function throws an I/O error for any item.
+     */
+    public static <T, R> @NotNull List<R> map(@NotNull List<T> items, @NotNull IOFunction<? super T, ? extends R> function) throws IOException {
+        return map(items, function, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Applies a function to every item concurrently and returns the results in the order of the items.
+     *
+     * @param items       The items to process.
+     * @param function    The function to apply to each item.
+     * @param parallelism The maximum number of worker threads.
+     * @param <T>         The item type.
+     * @param <R>         The result type.
+     * @return The results, in the same order as the items.
+     * @throws IOException If the function throws an I/O error for any item.
+     */
+    public static <T, R> @NotNull List<R> map(@NotNull List<T> items, @NotNull IOFunction<? super T, ? extends R> function, int parallelism) throws IOException {
+        List<R> results = new ArrayList<>(items.size());
+        if (items.size() <= 1 || parallelism <= 1) {
+            for (T item : items)
+                results.add(function.apply(item));
+            return results;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, items.size()));
+        try {
+            List<ForkJoinTask<? extends R>> tasks = new ArrayList<>(items.size());
+            for (T item : items)
+                tasks.add(pool.submit(() -> function.apply(item)));
+            for (ForkJoinTask<? extends R> task : tasks)
+                results.add(task.get());
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for parallel tasks");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Rethrows the cause of a failed task, keeping I/O errors checked.
+     *
+     * @param e The execution exception thrown by the task.
+     * @return The I/O exception to throw.
+     */
+    public static IOException unwrap(@NotNull ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException ioException)
+            return ioException;
+        if (cause instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        if (cause instanceof Error error)
+            throw error;
+        return new IOException(cause);
+    }
+}
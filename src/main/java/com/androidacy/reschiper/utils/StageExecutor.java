@@ -0,0 +1,104 @@
+package com.androidacy.reschiper.utils;
+
+import org.apache.commons.io.function.IORunnable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the stages of a pipeline as a dependency graph on a bounded thread pool.
+ * <p>
+ * Every stage names the stages it depends on and starts as soon as they have completed, so independent stages
+ * run concurrently. Dependencies must be submitted before the stages depending on them, which keeps the graph
+ * acyclic. A stage whose dependency failed is not run.
+ */
+public class StageExecutor implements Closeable {
+    private final ExecutorService executor;
+    private final Map<String, CompletableFuture<Void>> stages = new LinkedHashMap<>();
+
+    /**
+     * Constructs a StageExecutor.
+     *
+     * @param parallelism The maximum number of stages running at the same time.
+     */
+    public StageExecutor(int parallelism) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Submits a stage, to be run once all of its dependencies have completed.
+     *
+     * @param name         The unique name of the stage.
+     * @param stage        The work of the stage.
+     * @param dependencies The names of the submitted stages this stage depends on.
+     * @throws IllegalArgumentException If the name is already taken or a dependency has not been submitted.
+     */
+    public void submit(@NotNull String name, @NotNull IORunnable stage, String @NotNull ... dependencies) {
+        if (stages.containsKey(name))
+            throw new IllegalArgumentException("Duplicate stage: " + name);
+        CompletableFuture<?>[] dependencyFutures = new CompletableFuture<?>[dependencies.length];
+        for (int i = 0; i < dependencies.length; i++) {
+            dependencyFutures[i] = stages.get(dependencies[i]);
+            if (dependencyFutures[i] == null)
+                throw new IllegalArgumentException("Stage " + name + " depends on unknown stage " + dependencies[i]);
+        }
+        stages.put(name, CompletableFuture.allOf(dependencyFutures).thenRunAsync(() -> {
+            try {
+                stage.run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Waits for all submitted stages to finish, even if one of them fails, and rethrows the failure of the
+     * first failed stage in submission order.
+     *
+     * @throws IOException If a stage failed with an I/O error.
+     */
+    public void awaitAll() throws IOException {
+        try {
+            CompletableFuture.allOf(stages.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            // every stage has finished, report the failures below in submission order
+        }
+        for (CompletableFuture<Void> stage : stages.values()) {
+            try {
+                stage.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+    }
+
+    /**
+     * Rethrows the cause of a failed stage, keeping I/O errors checked.
+     *
+     * @param e The completion exception thrown by the stage.
+     * @return The I/O exception to throw.
+     */
+    private static IOException unwrap(@NotNull CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException uncheckedIOException)
+            return uncheckedIOException.getCause();
+        if (cause instanceof RuntimeException runtimeException)
+            throw runtimeException;
+        if (cause instanceof Error error)
+            throw error;
+        return new IOException(cause);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -5,7 +5,6 @@ import org.jetbrains.annotations.NotNull;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Pattern;
 
 public class Utils {
     public static String convertToPatternString(String input) {
@@ -17,15 +16,8 @@ public class Utils {
         return replaceEach(input, searchList, replacementList);
     }
 
-    public static boolean match(String str, HashSet<Pattern> patterns) {
-        if (patterns == null)
-            return true;
-        for (Pattern p : patterns) {
-            boolean isMatch = p.matcher(str).matches();
-            if (isMatch)
-                return false;
-        }
-        return true;
+    public static boolean match(String str, GlobMatcher patterns) {
+        return patterns == null || !patterns.matches(str);
     }
 
     public static String readInputStream(@NotNull InputStream inputStream) throws IOException {
@@ -0,0 +1,134 @@
+package com.androidacy.reschiper.bundle;
+
+import com.android.aapt.Resources;
+import com.android.tools.build.bundletool.io.AppBundleSerializer;
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleModule;
+import com.android.tools.build.bundletool.model.BundleModuleName;
+import com.android.tools.build.bundletool.model.ModuleEntry;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that packaging with entries copied from the source bundle gives the same bundle as bundletool's
+ * {@link AppBundleSerializer}.
+ */
+class AppBundlePackagerTest {
+    private static final String REPLACED_ENTRY = "res/drawable/base_drawable_0.png";
+    private static final String RENAMED_ENTRY = "res/drawable/base_drawable_1.png";
+    private static final String RENAMED_PATH = "res/drawable/a.png";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void packagedBundleMatchesSerializedBundle() throws IOException {
+        Path source = directory.resolve("source.aab");
+        new SyntheticBundleGenerator()
+                .withModuleCount(2)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.DRAWABLE, 20)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.LAYOUT, 5)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.RAW, 5)
+                .withFileSize(1024)
+                .withDuplicateRatio(0.2)
+                .withLocaleCount(2)
+                .generate(source);
+        Path packaged = directory.resolve("packaged.aab");
+        Path serialized = directory.resolve("serialized.aab");
+
+        try (BundleFile bundleFile = BundleFile.open(source)) {
+            AppBundle sourceAppBundle = new AppBundleAnalyzer(bundleFile).analyze();
+            AppBundle appBundle = modifyBaseModule(sourceAppBundle);
+            AppBundlePackager packager = new AppBundlePackager(appBundle, packaged);
+            packager.withSourceBundle(bundleFile, sourceAppBundle);
+            packager.execute();
+            new AppBundleSerializer().writeToDisk(appBundle, serialized);
+        }
+
+        try (ZipFile packagedZip = new ZipFile(packaged.toFile());
+             ZipFile serializedZip = new ZipFile(serialized.toFile());
+             BundleZipReader sourceReader = new BundleZipReader(source);
+             BundleZipReader packagedReader = new BundleZipReader(packaged)) {
+            assertEquals(getEntryNames(serializedZip), getEntryNames(packagedZip));
+            for (ZipEntry expected : Collections.list(serializedZip.entries())) {
+                ZipEntry actual = packagedZip.getEntry(expected.getName());
+                assertEquals(expected.getCrc(), actual.getCrc(), expected.getName());
+                assertArrayEquals(read(serializedZip, expected), read(packagedZip, actual), expected.getName());
+            }
+            // unchanged entries are copied with their compressed bytes, changed ones are compressed again
+            String copied = "feature1/res/layout/feature1_layout_0.xml";
+            assertEquals(sourceReader.getEntry(copied).compressedSize(), packagedReader.getEntry(copied).compressedSize());
+            assertEquals(sourceReader.getEntry("base/" + RENAMED_ENTRY).crc(), packagedReader.getEntry("base/" + RENAMED_PATH).crc());
+            assertNotEquals(sourceReader.getEntry("base/" + REPLACED_ENTRY).crc(), packagedReader.getEntry("base/" + REPLACED_ENTRY).crc());
+
+            AppBundle reopened = AppBundle.buildFromZip(packagedZip);
+            assertEquals(Set.of("base", "feature1"), getModuleNames(reopened));
+            BundleModule base = reopened.getBaseModule();
+            assertTrue(base.getEntry(ZipPath.create(RENAMED_PATH)).isPresent());
+            assertEquals("renamed", base.getResourceTable().orElseThrow().getPackage(0).getType(0).getEntry(0).getName());
+        }
+    }
+
+    /**
+     * Replaces the content of an entry, renames another one and edits the resource table of the base module,
+     * leaving the other modules unchanged.
+     */
+    private static AppBundle modifyBaseModule(AppBundle appBundle) {
+        BundleModule base = appBundle.getBaseModule();
+        List<ModuleEntry> entries = new ArrayList<>();
+        for (ModuleEntry entry : base.getEntries()) {
+            String path = entry.getPath().toString();
+            if (path.equals(REPLACED_ENTRY))
+                entry = entry.toBuilder().setContent(ByteSource.wrap("replaced".getBytes(StandardCharsets.UTF_8))).build();
+            else if (path.equals(RENAMED_ENTRY))
+                entry = entry.toBuilder().setPath(ZipPath.create(RENAMED_PATH)).build();
+            entries.add(entry);
+        }
+        Resources.ResourceTable table = base.getResourceTable().orElseThrow();
+        Resources.ResourceTable.Builder tableBuilder = table.toBuilder();
+        tableBuilder.getPackageBuilder(0).getTypeBuilder(0).getEntryBuilder(0).setName("renamed");
+        BundleModule modifiedBase = base.toBuilder()
+                .setRawEntries(entries)
+                .setResourceTable(tableBuilder.build())
+                .build();
+
+        ImmutableMap.Builder<BundleModuleName, BundleModule> modules = ImmutableMap.builder();
+        for (BundleModule module : appBundle.getModules().values())
+            modules.put(module.getName(), module == base ? modifiedBase : module);
+        return appBundle.toBuilder().setModules(modules.build()).build();
+    }
+
+    private static Set<String> getEntryNames(ZipFile zipFile) {
+        Set<String> names = new TreeSet<>();
+        for (ZipEntry entry : Collections.list(zipFile.entries()))
+            names.add(entry.getName());
+        return names;
+    }
+
+    private static Set<String> getModuleNames(AppBundle appBundle) {
+        Set<String> names = new TreeSet<>();
+        for (BundleModuleName name : appBundle.getModules().keySet())
+            names.add(name.getName());
+        return names;
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.androidacy.reschiper.bundle;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that {@link BinaryResourceMapping} reads back what {@link ResourceMapping#writeMappingToFile} wrote, and
+ * that it rejects truncated files and binary mappings of another text mapping.
+ */
+class BinaryResourceMappingTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void mappingRoundTrips() throws IOException {
+        ResourceMapping mapping = createMapping();
+        Path mappingPath = directory.resolve("resources-mapping.txt");
+        mapping.writeMappingToFile(mappingPath);
+
+        ResourceMapping read = BinaryResourceMapping.read(directory.resolve("resources-mapping.bin"));
+
+        assertEquals(mapping.getDirMapping(), read.getDirMapping());
+        assertEquals(mapping.getResourceMapping(), read.getResourceMapping());
+        assertEquals(mapping.getEntryFilesMapping(), read.getEntryFilesMapping());
+        // the text form has the ids too, including the missing ones
+        Path rewrittenPath = directory.resolve("rewritten.txt");
+        read.writeMappingToFile(rewrittenPath);
+        assertArrayEquals(Files.readAllBytes(mappingPath), Files.readAllBytes(rewrittenPath));
+    }
+
+    @Test
+    void emptyMappingRoundTrips() throws IOException {
+        Path mappingPath = directory.resolve("resources-mapping.txt");
+        new ResourceMapping().writeMappingToFile(mappingPath);
+
+        ResourceMapping read = BinaryResourceMapping.read(directory.resolve("resources-mapping.bin"));
+
+        assertTrue(read.getDirMapping().isEmpty());
+        assertTrue(read.getResourceMapping().isEmpty());
+        assertTrue(read.getEntryFilesMapping().isEmpty());
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws IOException {
+        createMapping().writeMappingToFile(directory.resolve("resources-mapping.txt"));
+        byte[] content = Files.readAllBytes(directory.resolve("resources-mapping.bin"));
+        Path truncatedPath = directory.resolve("truncated.bin");
+
+        for (int length = 0; length < content.length; length++) {
+            Files.write(truncatedPath, Arrays.copyOf(content, length));
+            assertThrows(IOException.class, () -> BinaryResourceMapping.read(truncatedPath), "length " + length);
+        }
+    }
+
+    @Test
+    void binaryMappingOfAnotherTextMappingIsNotCurrent() throws IOException {
+        Path mappingPath = directory.resolve("resources-mapping.txt");
+        Path binaryPath = directory.resolve("resources-mapping.bin");
+        createMapping().writeMappingToFile(mappingPath);
+        assertNotNull(BinaryResourceMapping.readIfCurrent(binaryPath, mappingPath));
+
+        // same size, different content
+        String text = Files.readString(mappingPath, StandardCharsets.UTF_8);
+        Files.writeString(mappingPath, text.replace("res/a", "res/z"), StandardCharsets.UTF_8);
+        assertEquals(text.length(), Files.readString(mappingPath, StandardCharsets.UTF_8).length());
+        assertNull(BinaryResourceMapping.readIfCurrent(binaryPath, mappingPath));
+
+        Files.writeString(mappingPath, text + "\n", StandardCharsets.UTF_8);
+        assertNull(BinaryResourceMapping.readIfCurrent(binaryPath, mappingPath));
+    }
+
+    @Test
+    void binaryMappingCanBeReplacedAfterReading() throws IOException {
+        // an incremental run reads the mapping of the previous run, then writes its own mapping to the same files
+        Path mappingPath = directory.resolve("resources-mapping.txt");
+        Path binaryPath = directory.resolve("resources-mapping.bin");
+        createMapping().writeMappingToFile(mappingPath);
+        ResourceMapping read = BinaryResourceMapping.readIfCurrent(binaryPath, mappingPath);
+        assertNotNull(read);
+
+        read.putDirMapping("res/xml", "res/d");
+        read.writeMappingToFile(mappingPath);
+
+        assertEquals("res/d", BinaryResourceMapping.read(binaryPath).getDirMapping().get("res/xml"));
+    }
+
+    @Test
+    void compressedMappingIsCurrent() throws IOException {
+        Path mappingPath = directory.resolve("resources-mapping.txt.gz");
+        ResourceMapping mapping = createMapping();
+        mapping.writeMappingToFile(mappingPath);
+
+        ResourceMapping read = BinaryResourceMapping.readIfCurrent(directory.resolve("resources-mapping.bin"), mappingPath);
+
+        assertNotNull(read);
+        assertEquals(mapping.getResourceMapping(), read.getResourceMapping());
+    }
+
+    /**
+     * Creates a mapping with non-ASCII names and a resource and an entry file without an id.
+     */
+    private static ResourceMapping createMapping() {
+        ResourceMapping mapping = new ResourceMapping();
+        mapping.putDirMapping("res/drawable", "res/a");
+        mapping.putDirMapping("res/drawable-fr", "res/b");
+        mapping.putDirMapping("res/layout-ünïcode", "res/c");
+        mapping.putResourceMapping("com.example.R.drawable.icon", "com.example.R.drawable.a");
+        mapping.addResourceNameAndId("com.example.R.drawable.icon", "0x7f010000");
+        mapping.putResourceMapping("com.example.R.string.größe", "com.example.R.string.b");
+        mapping.addResourceNameAndId("com.example.R.string.größe", "0x7f020000");
+        mapping.putResourceMapping("com.example.R.string.no_id", "com.example.R.string.c");
+        mapping.putEntryFileMapping("base/res/drawable/icon.png", "res/a/a.png");
+        mapping.addResourcePathAndId("base/res/drawable/icon.png", "0x7f010000");
+        mapping.putEntryFileMapping("base/res/layout-ünïcode/main.xml", "res/c/a.xml");
+        return mapping;
+    }
+}
@@ -0,0 +1,185 @@
+package com.androidacy.reschiper.bundle;
+
+import com.google.common.io.ByteSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the archives written by {@link BundleZipWriter} against {@link ZipFile}, and the archives the writer
+ * and the {@link BundleZipReader} reject.
+ */
+class BundleZipWriterTest {
+    private static final int MAX_CLASSIC_ENTRIES = 0xFFFF;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writtenEntriesAreReadByZipFile() throws IOException {
+        Map<String, byte[]> contents = createContents();
+        Path archive = directory.resolve("written.zip");
+        writeArchive(archive, contents);
+
+        assertArchiveContains(archive, contents);
+    }
+
+    @Test
+    void copiedEntriesKeepTheirBytesAndCrc() throws IOException {
+        Map<String, byte[]> contents = createContents();
+        Path source = directory.resolve("source.zip");
+        writeArchive(source, contents);
+        Path copy = directory.resolve("copy.zip");
+        try (BundleZipReader reader = new BundleZipReader(source);
+             BundleZipWriter writer = new BundleZipWriter(copy)) {
+            for (String name : contents.keySet())
+                writer.addRawEntry("copy/" + name, reader, Objects.requireNonNull(reader.getEntry(name)));
+        }
+
+        Map<String, byte[]> copiedContents = new LinkedHashMap<>();
+        contents.forEach((name, content) -> copiedContents.put("copy/" + name, content));
+        assertArchiveContains(copy, copiedContents);
+        try (BundleZipReader sourceReader = new BundleZipReader(source);
+             BundleZipReader copyReader = new BundleZipReader(copy)) {
+            for (String name : contents.keySet()) {
+                BundleZipReader.Entry sourceEntry = Objects.requireNonNull(sourceReader.getEntry(name));
+                BundleZipReader.Entry copiedEntry = Objects.requireNonNull(copyReader.getEntry("copy/" + name));
+                assertEquals(sourceEntry.method(), copiedEntry.method(), name);
+                assertEquals(sourceEntry.compressedSize(), copiedEntry.compressedSize(), name);
+                assertEquals(sourceEntry.crc(), copiedEntry.crc(), name);
+            }
+        }
+    }
+
+    @Test
+    void readerIndexesEntriesWrittenByZipOutputStream() throws IOException {
+        Map<String, byte[]> contents = createContents();
+        Path archive = directory.resolve("jdk.zip");
+        try (ZipOutputStream output = new ZipOutputStream(Files.newOutputStream(archive))) {
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setExtra(new byte[]{1, 0, 2, 0, 7, 7});
+                output.putNextEntry(zipEntry);
+                output.write(entry.getValue());
+                output.closeEntry();
+            }
+        }
+
+        try (BundleZipReader reader = new BundleZipReader(archive);
+             MappedBundleReader mappedReader = new MappedBundleReader(reader)) {
+            assertEquals(contents.size(), reader.size());
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                int index = reader.indexOf(entry.getKey());
+                assertEquals(entry.getKey(), reader.getName(index));
+                assertArrayEquals(entry.getValue(), mappedReader.read(index), entry.getKey());
+            }
+            assertEquals(-1, reader.indexOf("missing"));
+        }
+    }
+
+    @Test
+    void duplicateEntryIsRejected() throws IOException {
+        try (BundleZipWriter writer = new BundleZipWriter(directory.resolve("duplicate.zip"))) {
+            writer.addEntry("base/resources.pb", ByteSource.wrap(new byte[]{1}), true);
+            assertThrows(ZipException.class, () -> writer.addEntry("base/resources.pb", ByteSource.wrap(new byte[]{2}), false));
+            assertThrows(ZipException.class, () -> writer.addDeflatedEntry("base/resources.pb",
+                    BundleZipWriter.deflate(ByteSource.wrap(new byte[]{3}), true)));
+        }
+    }
+
+    @Test
+    void archiveNeedingZip64IsNotWritten() throws IOException {
+        BundleZipWriter.DeflatedContent empty = BundleZipWriter.deflate(ByteSource.empty(), false);
+        BundleZipWriter writer = new BundleZipWriter(directory.resolve("zip64.zip"));
+        for (int i = 0; i <= MAX_CLASSIC_ENTRIES; i++)
+            writer.addDeflatedEntry("entry" + i, empty);
+        assertThrows(ZipException.class, writer::close);
+    }
+
+    @Test
+    void zip64ArchiveIsNotRead() throws IOException {
+        Path archive = directory.resolve("zip64.zip");
+        // the JDK switches to Zip64 beyond the entry count of the classic format
+        try (ZipOutputStream output = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive)))) {
+            for (int i = 0; i <= MAX_CLASSIC_ENTRIES; i++) {
+                output.putNextEntry(new ZipEntry("entry" + i));
+                output.closeEntry();
+            }
+        }
+
+        assertThrows(ZipException.class, () -> new BundleZipReader(archive));
+    }
+
+    /**
+     * Creates entries of random, repetitive, empty and large content, with non-ASCII names.
+     */
+    private static Map<String, byte[]> createContents() {
+        Random random = new Random(42);
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        byte[] randomContent = new byte[10000];
+        random.nextBytes(randomContent);
+        contents.put("base/res/raw/random.bin", randomContent);
+        contents.put("base/res/raw/repetitive.txt", "repetitive ".repeat(1000).getBytes());
+        contents.put("base/res/raw/empty.txt", new byte[0]);
+        contents.put("base/res/drawable/ünïcode.png", randomContent.clone());
+        byte[] largeContent = new byte[300_000];
+        random.nextBytes(largeContent);
+        contents.put("feature/res/raw/large.bin", largeContent);
+        return contents;
+    }
+
+    /**
+     * Writes the entries in turn as streamed, stored and compressed ahead.
+     */
+    private static void writeArchive(Path archive, Map<String, byte[]> contents) throws IOException {
+        try (BundleZipWriter writer = new BundleZipWriter(archive)) {
+            int i = 0;
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ByteSource content = ByteSource.wrap(entry.getValue());
+                switch (i++ % 3) {
+                    case 0 -> writer.addEntry(entry.getKey(), content, true);
+                    case 1 -> writer.addEntry(entry.getKey(), content, false);
+                    default -> writer.addDeflatedEntry(entry.getKey(), BundleZipWriter.deflate(content, true));
+                }
+            }
+        }
+    }
+
+    private static void assertArchiveContains(Path archive, Map<String, byte[]> contents) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zipFile.entries()))
+                names.add(entry.getName());
+            assertEquals(new ArrayList<>(contents.keySet()), names);
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ZipEntry zipEntry = zipFile.getEntry(entry.getKey());
+                CRC32 crc = new CRC32();
+                crc.update(entry.getValue());
+                assertEquals(crc.getValue(), zipEntry.getCrc(), entry.getKey());
+                assertEquals(entry.getValue().length, zipEntry.getSize(), entry.getKey());
+                try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+                    assertArrayEquals(entry.getValue(), inputStream.readAllBytes(), entry.getKey());
+                }
+            }
+        }
+        // the local headers must agree with the central directory for streaming readers too
+        try (ZipInputStream inputStream = new ZipInputStream(Files.newInputStream(archive))) {
+            int count = 0;
+            ZipEntry entry;
+            while ((entry = inputStream.getNextEntry()) != null) {
+                assertArrayEquals(contents.get(entry.getName()), inputStream.readAllBytes(), entry.getName());
+                count++;
+            }
+            assertEquals(contents.size(), count);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.androidacy.reschiper.command;
+
+import com.android.tools.build.bundletool.io.AppBundleSerializer;
+import com.android.tools.build.bundletool.model.AppBundle;
+import com.android.tools.build.bundletool.model.BundleMetadata;
+import com.android.tools.build.bundletool.model.ZipPath;
+import com.androidacy.reschiper.command.model.DuplicateResMergerCommand;
+import com.androidacy.reschiper.command.model.FileFilterCommand;
+import com.androidacy.reschiper.command.model.ObfuscateBundleCommand;
+import com.androidacy.reschiper.command.model.StringFilterCommand;
+import com.androidacy.reschiper.generator.SyntheticBundleGenerator;
+import com.androidacy.reschiper.obfuscation.ResourcesObfuscator;
+import com.google.common.io.ByteSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the fused pipeline, which applies the edits of all stages in one pass over each module, gives the
+ * same bundle and mapping as running the stages one after the other.
+ */
+class FusedPipelineTest {
+    private static final String FILTERED_METADATA = "com.example.tool/filtered.txt";
+    private static final String KEPT_METADATA = "com.example.tool/kept.txt";
+    private static final Set<String> FILE_FILTER_RULES = Set.of("BUNDLE-METADATA/com.example.tool/filtered*");
+    private static final Set<String> WHITE_LIST = Set.of(
+            SyntheticBundleGenerator.PACKAGE_NAME + ".R.string.base_string_1*",
+            "*.R.layout.feature1_layout_?",
+            "res/drawable/feature2_drawable_10.png"
+    );
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fusedRunMatchesSequentialRun() throws Exception {
+        Path bundlePath = directory.resolve("synthetic.aab");
+        AppBundle appBundle = new SyntheticBundleGenerator()
+                .withModuleCount(3)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.DRAWABLE, 40)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.LAYOUT, 20)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.RAW, 10)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.STRING, 40)
+                .withResourceCount(SyntheticBundleGenerator.ResourceType.COLOR, 10)
+                .withFileSize(512)
+                .withDuplicateRatio(0.3)
+                .withLocaleCount(3)
+                .build();
+        // metadata is the only content of the synthetic bundle the file filter may remove
+        BundleMetadata metadata = BundleMetadata.builder()
+                .addFile(ZipPath.create(FILTERED_METADATA), ByteSource.wrap("filtered".getBytes(StandardCharsets.UTF_8)))
+                .addFile(ZipPath.create(KEPT_METADATA), ByteSource.wrap("kept".getBytes(StandardCharsets.UTF_8)))
+                .build();
+        new AppBundleSerializer().writeToDisk(appBundle.toBuilder().setBundleMetadata(metadata).build(), bundlePath);
+        Path unusedStringsPath = directory.resolve("unused_strings.txt");
+        Files.write(unusedStringsPath, List.of("base_string_2", "base_string_3", "feature1_string_5", "feature2_string_0"));
+
+        Path sequentialOutput = obfuscate(bundlePath, unusedStringsPath, "sequential", false);
+        Path fusedOutput = obfuscate(bundlePath, unusedStringsPath, "fused", true);
+
+        try (ZipFile sequentialZip = new ZipFile(sequentialOutput.toFile());
+             ZipFile fusedZip = new ZipFile(fusedOutput.toFile())) {
+            Set<String> names = getEntryNames(sequentialZip);
+            assertEquals(names, getEntryNames(fusedZip));
+            assertFalse(names.contains("BUNDLE-METADATA/" + FILTERED_METADATA));
+            assertTrue(names.contains("BUNDLE-METADATA/" + KEPT_METADATA));
+            for (String name : names)
+                assertArrayEquals(read(sequentialZip, name), read(fusedZip, name), name);
+            for (String module : List.of("base", "feature1", "feature2"))
+                assertTrue(names.contains(module + "/resources.pb"), module);
+        }
+        assertArrayEquals(Files.readAllBytes(sequentialOutput.resolveSibling(ResourcesObfuscator.FILE_MAPPING_NAME)),
+                Files.readAllBytes(fusedOutput.resolveSibling(ResourcesObfuscator.FILE_MAPPING_NAME)));
+    }
+
+    /**
+     * Obfuscates the bundle with every stage enabled into its own output directory.
+     */
+    private Path obfuscate(Path bundlePath, Path unusedStringsPath, String name, boolean fusedPipeline) throws Exception {
+        Path outputPath = Files.createDirectories(directory.resolve(name)).resolve("obfuscated.aab");
+        Command.Builder builder = Command.builder();
+        builder.setBundlePath(bundlePath);
+        builder.setOutputPath(outputPath);
+        builder.setObfuscateBundleBuilder(ObfuscateBundleCommand.builder()
+                .setEnableObfuscate(true)
+                .setObfuscationMode("default")
+                .setWhiteList(WHITE_LIST)
+                .setFilterFile(true)
+                .setFileFilterRules(FILE_FILTER_RULES)
+                .setRemoveStr(true)
+                .setUnusedStrPath(unusedStringsPath.toString())
+                .setMergeDuplicatedResources(true)
+                .setDisableSign(true)
+                .setFusedPipeline(fusedPipeline)
+                .build());
+        builder.setFileFilterBuilder(FileFilterCommand.builder().setFileFilterRules(FILE_FILTER_RULES).build());
+        builder.setStringFilterBuilder(StringFilterCommand.builder().build());
+        builder.setDuplicateResMergeBuilder(DuplicateResMergerCommand.builder().build());
+        return builder.build(builder.build(), Command.TYPE.OBFUSCATE_BUNDLE).execute(Command.TYPE.OBFUSCATE_BUNDLE);
+    }
+
+    private static Set<String> getEntryNames(ZipFile zipFile) {
+        Set<String> names = new TreeSet<>();
+        for (ZipEntry entry : Collections.list(zipFile.entries()))
+            names.add(entry.getName());
+        return names;
+    }
+
+    private static byte[] read(ZipFile zipFile, String name) throws IOException {
+        try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(name))) {
+            return inputStream.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.androidacy.reschiper.parser;
+
+import com.androidacy.reschiper.bundle.ResourceMapping;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks {@link ResourcesMappingParser} against the regular expressions the mapping grammar was defined with.
+ */
+class ResourcesMappingParserTest {
+    private static final Pattern MAP_DIR_PATTERN = Pattern.compile("^\\s+(.*)->(.*)");
+    private static final Pattern MAP_RES_PATTERN = Pattern.compile("^\\s+(.*):(.*)->(.*)");
+    private static final String MAPPING = """
+            res dir mapping:
+            \tres/drawable -> res/a
+            \tres/layout-land -> res/b
+            \t res/raw\t->  res/c\s
+
+
+            res id mapping:
+            \t0x7f010000 : com.example.R.drawable.icon -> com.example.R.drawable.a
+            \t0x7f020000 : com.example.R.string.größe -> com.example.R.string.a
+            \tnull : com.example.R.string.no_id -> com.example.R.string.b
+            not indented : com.example.R.string.ignored -> ignored
+            \tno arrow : com.example.R.string.ignored
+
+
+            res entries path mapping:
+            \t0x7f010000 : base/res/drawable/icon.png -> res/a/a.png
+            \tnull : feature/res/raw/data.bin -> res/c/a.bin
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void mappingMatchesRegexGrammar() throws IOException {
+        ResourceMapping mapping = parse(MAPPING, 1);
+
+        assertMappingEquals(parseWithRegex(MAPPING), mapping);
+        assertEquals(3, mapping.getDirMapping().size());
+        assertEquals("res/c", mapping.getDirMapping().get("res/raw"));
+        assertEquals("com.example.R.string.a", mapping.getResourceMapping().get("com.example.R.string.größe"));
+        assertEquals(2, mapping.getEntryFilesMapping().size());
+    }
+
+    @Test
+    void crlfLineEndingsAreParsedLikeLf() throws IOException {
+        String mapping = MAPPING.replace("\n", "\r\n");
+
+        assertMappingEquals(parseWithRegex(mapping), parse(mapping, 1));
+        assertMappingEquals(parse(MAPPING, 1), parse(mapping, 1));
+    }
+
+    @Test
+    void colonsInNamesMatchRegexGrammar() throws IOException {
+        // the last colon before the last arrow separates the id, colons after the arrow belong to the obfuscated name
+        String mapping = """
+                res entries path mapping:
+                \t0x7f010000 : base/res/raw/a:b.txt -> res/a/a.txt
+                \t0x7f010001 : base/res/raw/c.txt -> res/a/b:c.txt
+                \t0x7f010002 : base/res/raw/d->e.txt -> res/a/c.txt
+                """;
+
+        ResourceMapping parsed = parse(mapping, 1);
+
+        assertMappingEquals(parseWithRegex(mapping), parsed);
+        assertEquals("res/a/a.txt", parsed.getEntryFilesMapping().get("b.txt"));
+        assertEquals("res/a/b:c.txt", parsed.getEntryFilesMapping().get("base/res/raw/c.txt"));
+        assertEquals("res/a/c.txt", parsed.getEntryFilesMapping().get("base/res/raw/d->e.txt"));
+    }
+
+    @Test
+    void malformedDirMatchesRegexGrammar() throws IOException {
+        assertErrorMatchesRegexGrammar("\tres/drawable.v2 -> res/a\n");
+        assertErrorMatchesRegexGrammar("\tdrawable -> a\r\n");
+    }
+
+    @Test
+    void malformedPackageMatchesRegexGrammar() throws IOException {
+        assertErrorMatchesRegexGrammar("\t0x7f010000 : com.example.drawable.icon -> a\n");
+        // a colon in a resource name leaves only the part after it as the raw name
+        assertErrorMatchesRegexGrammar("\t0x7f010000 : com.example.R.string.a:b -> a\n");
+    }
+
+    @Test
+    void parallelParseMatchesSequentialParse() throws IOException {
+        StringBuilder builder = new StringBuilder("res id mapping:\n");
+        for (int i = 0; i < 30_000; i++)
+            builder.append("\t0x7f").append(String.format("%06x", i)).append(" : com.example.R.string.resource_name_")
+                    .append(i).append(" -> com.example.R.string.obfuscated_").append(i).append('\n');
+        builder.append("\n\nres entries path mapping:\n");
+        for (int i = 0; i < 30_000; i++)
+            builder.append("\t0x7f").append(String.format("%06x", i)).append(" : base/res/drawable/resource_file_")
+                    .append(i).append(".png -> res/a/").append(i).append(".png\r\n");
+        String mapping = builder.toString();
+        assertTrue(mapping.length() > 4 * 1024 * 1024, "the mapping must be split into chunks");
+
+        ResourceMapping sequential = parse(mapping, 1);
+        ResourceMapping parallel = parse(mapping, 4);
+
+        assertEquals(30_000, sequential.getResourceMapping().size());
+        assertEquals(30_000, sequential.getEntryFilesMapping().size());
+        assertMappingEquals(sequential, parallel);
+        assertMappingEquals(parseWithRegex(mapping), parallel);
+    }
+
+    private void assertErrorMatchesRegexGrammar(String mapping) throws IOException {
+        IllegalArgumentException expected = assertThrows(IllegalArgumentException.class, () -> parseWithRegex(mapping));
+        IllegalArgumentException actual = assertThrows(IllegalArgumentException.class, () -> parse(mapping, 1));
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    private static void assertMappingEquals(ResourceMapping expected, ResourceMapping actual) {
+        assertEquals(expected.getDirMapping(), actual.getDirMapping());
+        assertEquals(expected.getResourceMapping(), actual.getResourceMapping());
+        assertEquals(expected.getEntryFilesMapping(), actual.getEntryFilesMapping());
+    }
+
+    private ResourceMapping parse(String mapping, int parallelism) throws IOException {
+        Path mappingPath = directory.resolve("resources-mapping.txt");
+        Files.writeString(mappingPath, mapping, StandardCharsets.UTF_8);
+        ResourcesMappingParser parser = new ResourcesMappingParser(mappingPath);
+        parser.setParallelism(parallelism);
+        return parser.parse();
+    }
+
+    /**
+     * Parses a mapping line by line with the regular expressions of the mapping grammar.
+     */
+    private static ResourceMapping parseWithRegex(String content) throws IOException {
+        ResourceMapping mapping = new ResourceMapping();
+        BufferedReader reader = new BufferedReader(new StringReader(content));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.contains(":")) {
+                Matcher matcher = MAP_DIR_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    if (!line.contains("/") || line.contains("."))
+                        throw new IllegalArgumentException("Unexpected resource dir: " + line);
+                    mapping.putDirMapping(matcher.group(1).trim(), matcher.group(2).trim());
+                }
+            } else {
+                Matcher matcher = MAP_RES_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    String rawName = matcher.group(2).trim();
+                    String obfuscatedName = matcher.group(3).trim();
+                    if (line.contains("/"))
+                        mapping.putEntryFileMapping(rawName, obfuscatedName);
+                    else if (!rawName.contains(".R."))
+                        throw new IllegalArgumentException(String.format("the mapping file packageName is malformed, "
+                                + "it should be like com.github.goldfish07.ugc.R.attr.test, yours %s\n", rawName));
+                    else
+                        mapping.putResourceMapping(rawName, obfuscatedName);
+                }
+            }
+        }
+        return mapping;
+    }
+}
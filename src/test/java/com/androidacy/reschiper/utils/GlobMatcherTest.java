@@ -0,0 +1,120 @@
+package com.androidacy.reschiper.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks {@link GlobMatcher} against matching every rule in turn as the regular expression of
+ * {@link Utils#convertToPatternString(String)}.
+ */
+class GlobMatcherTest {
+    private static final int MAX_CACHED_STATES = 4096;
+
+    @Test
+    void wildcardsMatchLikeRegex() {
+        List<String> rules = List.of("a?c", "b*c", "d+c", "res/*/icon.png", "*.R.string.foo_+", "e?f?g", "*?+", "h**i");
+        List<String> names = List.of("", "ac", "abc", "abbc", "a\nc", "a c", "bc", "bxyzc", "b\rc", "dc", "dxc",
+                "dxyc", "res//icon.png", "res/drawable/icon.png", "res/drawable/icon.pngx", "com.example.R.string.foo_",
+                "com.example.R.string.foo_bar", "eg", "exfyg", "exyg", "exfygz", "x", "\n", "hi", "hxxi", "HI");
+
+        assertMatchesLikeRegex(rules, names);
+    }
+
+    @Test
+    void dotIsLiteral() {
+        List<String> rules = List.of("res/a.png", "*.R.drawable.icon", "res/b.+");
+        List<String> names = List.of("res/a.png", "res/axpng", "com.example.R.drawable.icon", "com.example.RxdrawablexIcon",
+                "com.example.RxdrawableXicon", "res/b.x", "res/bxx", "res/b.");
+
+        assertMatchesLikeRegex(rules, names);
+    }
+
+    @Test
+    void regexRulesMatchLikeRegex() {
+        List<String> rules = List.of("res/(raw|xml)/*", "[ab]+.txt", "^x$", "y{2}", "*.R.string.(a|b)", "c\\d+", "z|w*");
+        List<String> names = List.of("res/raw/a.bin", "res/xml/a.xml", "res/drawable/a.png", "a.txt", "ab.txt", "abc.txt",
+                "x", "^x$", "yy", "y{2}", "com.example.R.string.a", "com.example.R.string.c", "c1", "c12", "cd", "z",
+                "w", "wz", "z|w");
+
+        assertMatchesLikeRegex(rules, names);
+    }
+
+    @Test
+    void firstMatchingRuleIsReported() {
+        List<String> rules = List.of("*.png", "icon.png", "(icon).png", "icon.png", "icon.+", "res/*", "res/icon.png",
+                "[r]es/*");
+        List<String> names = List.of("icon.png", "icon.webp", "res/icon.png", "res/icon.webp", "res/x");
+
+        assertMatchesLikeRegex(rules, names);
+        GlobMatcher matcher = new GlobMatcher(rules);
+        assertEquals(0, matcher.match("icon.png"));
+        assertEquals(4, matcher.match("icon.webp"));
+        assertEquals(5, matcher.match("res/icon.webp"));
+        assertEquals(GlobMatcher.NO_MATCH, matcher.match("other"));
+        assertEquals("icon.+", matcher.getRule(4));
+    }
+
+    @Test
+    void statesBeyondCacheMatchLikeRegex() throws ReflectiveOperationException {
+        Random random = new Random(42);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            words.add(randomWord(random, 10));
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++)
+            rules.add(i % 2 == 0 ? "*" + words.get(i) : "*" + words.get(i) + "?" + words.get(i).charAt(0) + "*");
+        // names end in every prefix of the rules, so the matcher reaches more states than it caches
+        List<String> names = new ArrayList<>();
+        for (String word : words) {
+            names.add(randomWord(random, 3) + word.substring(0, 1 + random.nextInt(word.length())));
+            names.add(randomWord(random, 3) + word + randomWord(random, 2));
+            names.add(word.substring(0, 5) + randomWord(random, 8));
+        }
+        GlobMatcher matcher = new GlobMatcher(rules);
+
+        assertMatchesLikeRegex(matcher, rules, names);
+        assertEquals(MAX_CACHED_STATES, getCachedStateCount(matcher));
+        // uncached states give the same results the second time
+        assertMatchesLikeRegex(matcher, rules, names);
+    }
+
+    private static void assertMatchesLikeRegex(List<String> rules, List<String> names) {
+        assertMatchesLikeRegex(new GlobMatcher(rules), rules, names);
+    }
+
+    private static void assertMatchesLikeRegex(GlobMatcher matcher, List<String> rules, List<String> names) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String rule : rules)
+            patterns.add(Pattern.compile(Utils.convertToPatternString(rule)));
+        for (String name : names) {
+            int expected = GlobMatcher.NO_MATCH;
+            for (int i = 0; i < patterns.size() && expected == GlobMatcher.NO_MATCH; i++) {
+                if (patterns.get(i).matcher(name).matches())
+                    expected = i;
+            }
+            assertEquals(expected, matcher.match(name), name);
+            assertEquals(expected != GlobMatcher.NO_MATCH, matcher.matches(name), name);
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            word.append((char) ('a' + random.nextInt(4)));
+        return word.toString();
+    }
+
+    private static int getCachedStateCount(GlobMatcher matcher) throws ReflectiveOperationException {
+        Field field = GlobMatcher.class.getDeclaredField("cachedStates");
+        field.setAccessible(true);
+        return ((Map<?, ?>) field.get(matcher)).size();
+    }
+}